@@ -0,0 +1,354 @@
+/**
+ * JEBML - Java library to read/write EBML/Matroska elements.
+ * Copyright (C) 2004 Jory Stone <jebml@jory.info>
+ * Based on Javatroska (C) 2002 John Cannon <spyder@matroska.org>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.ebml;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A push parser for EBML, the counterpart of <code>EBMLReader</code> for data that arrives in chunks, e.g. from a non-blocking socket. Bytes are
+ * handed over with feed() in whatever pieces they come in; IDs, sizes and element data that are split between chunks are kept until the rest
+ * arrives, and the handler is told about each element as soon as it is complete. It never blocks, so one thread can drive many parsers.
+ * <p>
+ * Masters are reported when their header has been read and again when they end. Masters of unknown size end at the first element that can't be
+ * their child, as with <code>MasterElement.readNextChild()</code>, or at finish(). Other elements are reported with their data read, unless they
+ * are of an unknown type, which are skipped.
+ * <p>
+ * A parser is not thread safe, each stream needs its own.
+ */
+public class EBMLParser
+{
+  private static final Logger LOG = LoggerFactory.getLogger(EBMLParser.class);
+  private static final int INITIAL_DEPTH = 8;
+
+  /**
+   * Receives the elements found by the parser
+   */
+  public interface Handler
+  {
+    /**
+     * Called when the header of a master has been read.
+     *
+     * @return true to be told about its children, false to skip them. Masters of unknown size can't be skipped as their end is not known.
+     */
+    boolean startMaster(MasterElement element);
+
+    /**
+     * Called after the last child of a master that wasn't skipped. The size of a master of unknown size is known by now.
+     */
+    void endMaster(MasterElement element);
+
+    /**
+     * Called when an element that isn't a master has been read, with its data.
+     */
+    void element(Element element);
+  }
+
+  private enum State
+  {
+    ID, SIZE, DATA, SKIP
+  }
+
+  private final Handler handler;
+  private State state = State.ID;
+  /**
+   * Absolute position in the stream, the number of bytes fed so far
+   */
+  private long position = 0;
+
+  // The ID or size being read, which can be split between chunks
+  private int codeLength = 0;
+  private int codeRead = 0;
+  private long code = 0;
+
+  private long elementId;
+  private long elementStart;
+  private Element element;
+  private long skipRemaining;
+
+  // The open masters, with the position their data starts at and ends at, -1 if their size is unknown
+  private MasterElement[] masters = new MasterElement[INITIAL_DEPTH];
+  private long[] dataStarts = new long[INITIAL_DEPTH];
+  private long[] dataEnds = new long[INITIAL_DEPTH];
+  private int depth = 0;
+
+  public EBMLParser(final Handler handler)
+  {
+    this.handler = handler;
+  }
+
+  /**
+   * Parses the remaining bytes of a chunk of the stream, reporting every element it completes. The chunk is always consumed entirely.
+   */
+  public void feed(final ByteBuffer chunk)
+  {
+    while (chunk.hasRemaining())
+    {
+      switch (state)
+      {
+        case ID:
+        case SIZE:
+          if (readCode(chunk))
+          {
+            if (state == State.ID)
+            {
+              elementId = code;
+              state = State.SIZE;
+            }
+            else
+            {
+              startElement();
+            }
+          }
+          break;
+        case DATA:
+          readData(chunk);
+          break;
+        case SKIP:
+          skipData(chunk);
+          break;
+        default:
+          break;
+      }
+    }
+  }
+
+  /**
+   * Signals the end of the stream. The masters still open, normally only ones of unknown size, are ended.
+   */
+  public void finish()
+  {
+    if (state != State.ID || codeRead > 0)
+    {
+      LOG.warn("Stream ended inside an element at {}", position);
+    }
+    while (depth > 0)
+    {
+      endMaster();
+    }
+    state = State.ID;
+    codeRead = 0;
+  }
+
+  /**
+   * @return the number of bytes parsed so far
+   */
+  public long getPosition()
+  {
+    return position;
+  }
+
+  /**
+   * @return the number of masters open
+   */
+  public int getDepth()
+  {
+    return depth;
+  }
+
+  /**
+   * Reads one byte at a time of an ID or a size.
+   *
+   * @return true once the code is complete
+   */
+  private boolean readCode(final ByteBuffer chunk)
+  {
+    final byte b = chunk.get();
+    position++;
+    if (codeRead == 0)
+    {
+      if (state == State.ID)
+      {
+        elementStart = position - 1;
+      }
+      codeLength = EBMLReader.readEBMLCodeSize(b);
+      if (codeLength == 0)
+      {
+        LOG.error("Invalid EBML code {} at {}, skipping it", b, position - 1);
+        state = State.ID;
+        return false;
+      }
+      // IDs keep their length marker, sizes don't
+      code = state == State.ID ? b & 0xFF : b & (0xFF >>> codeLength);
+    }
+    else
+    {
+      code = (code << 8) | (b & 0xFF);
+    }
+    codeRead++;
+    if (codeRead < codeLength)
+    {
+      return false;
+    }
+    codeRead = 0;
+    return true;
+  }
+
+  private void readData(final ByteBuffer chunk)
+  {
+    final ByteBuffer data = element.data;
+    final int count = Math.min(data.remaining(), chunk.remaining());
+    final ByteBuffer part = chunk.duplicate();
+    part.limit(part.position() + count);
+    data.put(part);
+    chunk.position(chunk.position() + count);
+    position += count;
+    if (!data.hasRemaining())
+    {
+      endElement();
+    }
+  }
+
+  private void skipData(final ByteBuffer chunk)
+  {
+    final int count = (int) Math.min(skipRemaining, chunk.remaining());
+    chunk.position(chunk.position() + count);
+    position += count;
+    skipRemaining -= count;
+    if (skipRemaining == 0)
+    {
+      state = State.ID;
+      endMasters();
+    }
+  }
+
+  private void startElement()
+  {
+    final boolean unknownSize = code == (1L << (7 * codeLength)) - 1;
+    final Element elem = ProtoType.getInstance(elementId);
+    if (elem == null)
+    {
+      LOG.debug("Skipping unknown element {} at {}", Long.toHexString(elementId), elementStart);
+      skip(unknownSize ? 0 : code);
+      return;
+    }
+    // Masters of unknown size end where something that can't be their child begins
+    while (depth > 0 && dataEnds[depth - 1] < 0 && !masters[depth - 1].canContain(elem))
+    {
+      endMaster();
+    }
+
+    elem.setSize(code);
+    elem.setHeadersSize(position - elementStart);
+    elem.setParent(depth > 0 ? masters[depth - 1] : null);
+    if (elem instanceof MasterElement)
+    {
+      elem.setUnknownSize(unknownSize);
+      if (handler.startMaster((MasterElement) elem) || unknownSize)
+      {
+        push((MasterElement) elem, unknownSize ? -1 : position + code);
+        state = State.ID;
+        endMasters();
+      }
+      else
+      {
+        skip(code);
+      }
+      return;
+    }
+    if (unknownSize || code > Integer.MAX_VALUE)
+    {
+      LOG.error("Can't read {} of size {}, skipping it", elem.getElementType().getName(), code);
+      skip(unknownSize ? 0 : code);
+      return;
+    }
+    element = elem;
+    element.data = ByteBuffer.allocate((int) code);
+    state = State.DATA;
+    if (code == 0)
+    {
+      endElement();
+    }
+  }
+
+  private void endElement()
+  {
+    element.data.flip();
+    element.dataRead = true;
+    final Element elem = element;
+    element = null;
+    state = State.ID;
+    handler.element(elem);
+    endMasters();
+  }
+
+  private void skip(final long count)
+  {
+    skipRemaining = count;
+    state = State.SKIP;
+    if (count == 0)
+    {
+      state = State.ID;
+      endMasters();
+    }
+  }
+
+  private void push(final MasterElement master, final long dataEnd)
+  {
+    if (depth == masters.length)
+    {
+      masters = Arrays.copyOf(masters, depth * 2);
+      dataStarts = Arrays.copyOf(dataStarts, depth * 2);
+      dataEnds = Arrays.copyOf(dataEnds, depth * 2);
+    }
+    masters[depth] = master;
+    dataStarts[depth] = position;
+    dataEnds[depth] = dataEnd;
+    depth++;
+  }
+
+  /**
+   * Ends the masters whose data has all been read, along with the masters of unknown size inside them
+   */
+  private void endMasters()
+  {
+    for (int i = 0; i < depth; i++)
+    {
+      if (dataEnds[i] >= 0 && position >= dataEnds[i])
+      {
+        while (depth > i)
+        {
+          endMaster();
+        }
+        return;
+      }
+    }
+  }
+
+  private void endMaster()
+  {
+    depth--;
+    final MasterElement master = masters[depth];
+    masters[depth] = null;
+    if (master.isUnknownSize())
+    {
+      // The master ended where the element being started begins
+      final long end = state == State.ID ? position : elementStart;
+      final long headersSize = master.getTotalSize() - master.getSize();
+      master.setSize(end - dataStarts[depth]);
+      master.setHeadersSize(headersSize);
+      master.setUnknownSize(false);
+    }
+    handler.endMaster(master);
+  }
+}
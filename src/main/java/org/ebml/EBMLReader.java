@@ -20,6 +20,8 @@
 package org.ebml;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 
 import org.ebml.io.DataSource;
 import org.slf4j.Logger;
@@ -73,6 +75,111 @@ public class EBMLReader
 
   protected DataSource source;
 
+  // The header of the element readElements() is at, with a size of -1 if unknown. Kept when it ended a master of unknown size.
+  private long headerId;
+  private long headerSize;
+  private long headerOffset;
+  private boolean headerPending = false;
+  private final ByteBuffer valueBuffer = ByteBuffer.allocate(8);
+
+  /**
+   * What readElements() does with an element
+   */
+  public enum Action
+  {
+    /**
+     * Read the value of the element and pass it to the handler, a master as binary data
+     */
+    READ,
+    /**
+     * Skip the element, and any children
+     */
+    SKIP,
+    /**
+     * Go through the children of a master, or read the value of any other element
+     */
+    DESCEND
+  }
+
+  /**
+   * Receives the elements found by readElements(), identified by their ID including the length marker, as in the DocType. Only the values of the
+   * elements the handler asks for are read, the others are skipped without creating any objects.
+   */
+  public interface ElementHandler
+  {
+    /**
+     * Called for every element, before anything else is read from it.
+     *
+     * @param size Size of the data, or -1 for a master of unknown size, which can only be descended into
+     * @param offset Position of the element header in the source
+     * @return what to do with the element
+     */
+    Action startElement(long id, long size, long offset);
+
+    /**
+     * Called after the last child of a master that was descended into.
+     */
+    void endElement(long id);
+
+    void unsignedInteger(long id, long value);
+
+    /**
+     * Called for signed integers, and for dates as nanoseconds since 2001.
+     */
+    void signedInteger(long id, long value);
+
+    void floatValue(long id, double value);
+
+    void string(long id, String value);
+
+    /**
+     * Called for binary elements, elements of an unknown type and masters that were read rather than descended into.
+     */
+    void binary(long id, ByteBuffer value);
+  }
+
+  /**
+   * An <code>ElementHandler</code> that goes through every element and ignores all of them, to extend when only a few callbacks are needed.
+   */
+  public static class ElementHandlerAdapter implements ElementHandler
+  {
+    @Override
+    public Action startElement(final long id, final long size, final long offset)
+    {
+      return Action.DESCEND;
+    }
+
+    @Override
+    public void endElement(final long id)
+    {
+    }
+
+    @Override
+    public void unsignedInteger(final long id, final long value)
+    {
+    }
+
+    @Override
+    public void signedInteger(final long id, final long value)
+    {
+    }
+
+    @Override
+    public void floatValue(final long id, final double value)
+    {
+    }
+
+    @Override
+    public void string(final long id, final String value)
+    {
+    }
+
+    @Override
+    public void binary(final long id, final ByteBuffer value)
+    {
+    }
+  }
+
   /**
    * Creates a new <code>EBMLReader</code> reading from the <code>DataSource
    * source</code>. The <code>DocType doc</code> is used to validate the document.
@@ -97,13 +204,28 @@ public class EBMLReader
     return new String(hexChars);
   }
 
+  /**
+   * Formats the remaining bytes of a buffer as hex, without moving its position. Works on any kind of buffer, not just array backed ones.
+   */
+  public static String bytesToHex(final ByteBuffer bytes)
+  {
+    final char[] hexChars = new char[bytes.remaining() * 2];
+    for (int j = 0; j < bytes.remaining(); j++)
+    {
+      final int v = bytes.get(bytes.position() + j) & 0xFF;
+      hexChars[j * 2] = HEX_ARRAY[v >>> 4];
+      hexChars[j * 2 + 1] = HEX_ARRAY[v & 0x0F];
+    }
+    return new String(hexChars);
+  }
+
   public Element readNextElement()
   {
     // Read the type.
     final long position = source.getFilePointer();
-    final ByteBuffer elementType = readEBMLCodeAsBytes(source);
+    final long elementType = readEBMLId(source);
 
-    if (elementType == null)
+    if (elementType == 0)
     {
       // Failed to read type id
       return null;
@@ -118,6 +240,7 @@ public class EBMLReader
     LOG.trace("Read element {}", elem.getElementType().getName());
 
     // Read the size.
+    final long sizeStart = source.getFilePointer();
     final long elementSize = readEBMLCode(source);
     if (elementSize == 0)
     {
@@ -125,75 +248,256 @@ public class EBMLReader
       LOG.error("Invalid element size for {}", elem.typeInfo.getName());
     }
     final long end = source.getFilePointer();
+    // All ones means the size is unknown, the element ends where an element that can't be its child begins
+    if (elementSize == (1L << (7 * (end - sizeStart))) - 1)
+    {
+      if (elem instanceof MasterElement)
+      {
+        elem.setUnknownSize(true);
+      }
+      else
+      {
+        LOG.error("Unknown size for {}, which is not a master element", elem.typeInfo.getName());
+      }
+    }
 
     // Set it's size
     elem.setSize(elementSize);
     elem.setHeadersSize(end - position);
-    LOG.trace("Read element {} with size {}", elem.typeInfo.getName(), elem.getTotalSize());
-
-    // Setup a buffer for it's data
-    // byte[] elementData = new byte[(int)elementSize];
-    // Read the data
-    // source.read(elementData, 0, elementData.length);
-    // Set the data property on the element
-    // elem.setData(elementData);
-
-    // System.out.println("EBMLReader.readNextElement() returning element " + elem.getElementType().name + " with size " +
-    // Long.toString(elem.getTotalSize()-elementSize)+" "+Long.toString(elementSize));
+    if (LOG.isTraceEnabled())
+    {
+      LOG.trace("Read element {} with size {}", elem.typeInfo.getName(), elem.getTotalSize());
+    }
 
     // Return the element
     return elem;
   }
 
-  public static ByteBuffer getEBMLCodeAsBytes(final DataSource source)
+  /**
+   * Reads the elements from the current position to the end of the source, telling the handler about each one and letting it pick which to read,
+   * skip or descend into. Unlike readNextElement(), no <code>Element</code> objects are created.
+   */
+  public void readElements(final ElementHandler handler)
   {
-    // Begin loop with byte set to newly read byte.
-    final byte firstByte = source.readByte();
-    final int numBytes = readEBMLCodeSize(firstByte);
+    headerPending = false;
+    readChildren(handler, null, -1, false);
+  }
 
-    if (numBytes == 0)
+  /**
+   * Reads elements up to the end of their parent, or up to the first element that can't be a child of the parent if its size is unknown. That
+   * element's header is then left pending for an ancestor. A parent of unknown size still ends with the nearest ancestor of known size.
+   *
+   * @param end Position of the end of the parent data, or of the nearest ancestor of known size if the parent's is unknown, or -1 if none is known
+   * @param unknownSize Whether the size of the parent is unknown
+   * @return false once the end of the source has been reached
+   */
+  private boolean readChildren(final ElementHandler handler, final ProtoType<?> parentType, final long end, final boolean unknownSize)
+  {
+    while (true)
     {
-      LOG.error("Failed to read ebml code size from {}", firstByte);
-      // Invalid size
-      return null;
+      if (headerPending)
+      {
+        // Left by a child of unknown size, and past our end too
+        if (end >= 0 && headerOffset >= end)
+        {
+          return true;
+        }
+      }
+      else
+      {
+        if (end >= 0 && source.getFilePointer() >= end)
+        {
+          return true;
+        }
+        if (!readHeader())
+        {
+          return false;
+        }
+      }
+      headerPending = false;
+      final ProtoType<?> type = ProtoType.getProtoType(headerId);
+      if (unknownSize && parentType != null && type != null && type.getLevel() >= 0 && type.getLevel() <= parentType.getLevel())
+      {
+        headerPending = true;
+        return true;
+      }
+      final long id = headerId;
+      final long size = headerSize;
+      final Action action = handler.startElement(id, size, headerOffset);
+      final boolean master = type != null && MasterElement.class.isAssignableFrom(type.clazz);
+      if (master && (action == Action.DESCEND || size < 0))
+      {
+        final boolean more = readChildren(handler, type, size < 0 ? end : source.getFilePointer() + size, size < 0);
+        handler.endElement(id);
+        if (!more)
+        {
+          return false;
+        }
+      }
+      else if (size < 0)
+      {
+        LOG.error("Unknown size for {}, which is not a master element", type == null ? Long.toHexString(id) : type.getName());
+        return false;
+      }
+      else if (action == Action.SKIP)
+      {
+        source.skip(size);
+      }
+      else
+      {
+        readValue(handler, type, id, size);
+      }
     }
+  }
 
-    // Setup space to store the bits
-    final ByteBuffer buf = ByteBuffer.allocate(numBytes);
+  /**
+   * @return false at the end of the source or on an invalid header
+   */
+  private boolean readHeader()
+  {
+    final long length = source.length();
+    headerOffset = source.getFilePointer();
+    if (length >= 0 && headerOffset >= length)
+    {
+      return false;
+    }
+    headerId = readEBMLId(source);
+    if (headerId == 0)
+    {
+      return false;
+    }
+    final long sizeStart = source.getFilePointer();
+    headerSize = readEBMLCode(source);
+    if (headerSize == (1L << (7 * (source.getFilePointer() - sizeStart))) - 1)
+    {
+      headerSize = -1;
+    }
+    return true;
+  }
 
-    // Clear the 1 at the front of this byte, all the way to the beginning of the size
-    buf.put((byte) (firstByte & ((0xFF >>> (numBytes)))));
+  private void readValue(final ElementHandler handler, final ProtoType<?> type, final long id, final long size)
+  {
+    final Class<?> clazz = type == null ? BinaryElement.class : type.clazz;
+    if (size <= valueBuffer.capacity()
+        && (UnsignedIntegerElement.class.isAssignableFrom(clazz) || SignedIntegerElement.class.isAssignableFrom(clazz)))
+    {
+      final ByteBuffer value = readValueBuffer(size);
+      if (UnsignedIntegerElement.class.isAssignableFrom(clazz))
+      {
+        handler.unsignedInteger(id, parseEBMLCode(value));
+      }
+      else
+      {
+        // The first byte carries the sign
+        long l = value.hasRemaining() ? value.get() : 0;
+        while (value.hasRemaining())
+        {
+          l = (l << 8) | (value.get() & 0xFF);
+        }
+        handler.signedInteger(id, l);
+      }
+    }
+    else if (FloatElement.class.isAssignableFrom(clazz) && (size == 4 || size == 8))
+    {
+      final ByteBuffer value = readValueBuffer(size);
+      handler.floatValue(id, size == 4 ? value.getFloat() : value.getDouble());
+    }
+    else if (size > Integer.MAX_VALUE)
+    {
+      LOG.error("Element {} of size {} is too large to read, skipping it", Long.toHexString(id), size);
+      source.skip(size);
+    }
+    else if (StringElement.class.isAssignableFrom(clazz))
+    {
+      final ByteBuffer value = ByteBuffer.allocate((int) size);
+      source.read(value);
+      final Charset charset = UTF8StringElement.class.isAssignableFrom(clazz) ? StandardCharsets.UTF_8 : StandardCharsets.US_ASCII;
+      handler.string(id, new String(value.array(), 0, value.position(), charset));
+    }
+    else
+    {
+      final ByteBuffer value = ByteBuffer.allocate((int) size);
+      source.read(value);
+      value.flip();
+      handler.binary(id, value);
+    }
+  }
 
-    if (numBytes > 1)
+  private ByteBuffer readValueBuffer(final long size)
+  {
+    valueBuffer.clear();
+    valueBuffer.limit((int) size);
+    source.read(valueBuffer);
+    valueBuffer.flip();
+    return valueBuffer;
+  }
+
+  /**
+   * Reads an EBML code from the DataSource.
+   *
+   * @return buffer filled with the ebml code, with the size bits cleared
+   */
+  public static ByteBuffer getEBMLCodeAsBytes(final DataSource source)
+  {
+    final long code = readEBMLId(source);
+    if (code == 0)
     {
-      // Read the rest of the size.
-      source.read(buf);
+      return null;
     }
+    final int numBytes = getEBMLIdLength(code);
+    final ByteBuffer buf = ByteBuffer.allocate(numBytes);
+    // Clear the 1 at the front of the code, all the way to the beginning of the size
+    buf.put(Element.packInt(code & ~(1L << (7 * numBytes)), numBytes));
     buf.flip();
     return buf;
   }
 
+  /**
+   * Counts the bits unset before the first '1' of an EBML code, plus the '1' itself.
+   *
+   * @return the total length of the code in bytes, or 0 if the byte can not start a valid code
+   */
   public static int readEBMLCodeSize(final byte firstByte)
   {
-    int numBytes = 0;
-    // Begin by counting the bits unset before the first '1'.
-    long mask = 0x0080;
-    for (int i = 0; i < 8; i++)
-    {
-      // Start at left, shift to right.
-      if ((firstByte & mask) == mask)
-      { // One found
-        // Set number of bytes in size = i+1 ( we must count the 1 too)
-        numBytes = i + 1;
-        // exit loop by pushing i out of the limit
-        i = 8;
-      }
-      mask >>>= 1;
+    final int numBytes = Integer.numberOfLeadingZeros(firstByte & 0xFF) - 23;
+    if (numBytes > 8)
+    {
+      return 0;
     }
-    // System.out.printf("Read code size %d\n", numBytes);
     return numBytes;
   }
 
+  /**
+   * Reads an EBML element ID from the DataSource. Unlike sizes, IDs keep their length marker bits, so this is the value the ID has in the DocType.
+   *
+   * @return the element ID, or 0 if no valid ID could be read
+   */
+  public static long readEBMLId(final DataSource source)
+  {
+    final byte firstByte = source.readByte();
+    final int numBytes = readEBMLCodeSize(firstByte);
+    if (numBytes == 0)
+    {
+      LOG.error("Failed to read ebml code size from {}", firstByte);
+      // Invalid size
+      return 0;
+    }
+    long id = firstByte & 0xFF;
+    for (int i = 1; i < numBytes; i++)
+    {
+      id = (id << 8) | (source.readByte() & 0xFF);
+    }
+    return id;
+  }
+
+  /**
+   * Returns the number of bytes of an element ID as returned by {@link #readEBMLId(DataSource)}, judging by the position of its length marker.
+   */
+  public static int getEBMLIdLength(final long id)
+  {
+    return (63 - Long.numberOfLeadingZeros(id)) / 7;
+  }
+
   /**
    * Reads an (Unsigned) EBML code from the DataSource and encodes it into a long. This size should be cast into an int for actual use as Java only
    * allows upto 32-bit file I/O operations.
@@ -205,26 +509,20 @@ public class EBMLReader
     // Begin loop with byte set to newly read byte.
     final byte firstByte = source.readByte();
     final int numBytes = readEBMLCodeSize(firstByte);
-    LOG.trace("Reading ebml code of {} bytes", numBytes);
     if (numBytes == 0)
     {
       // Invalid size
       return 0;
     }
 
-    // Setup space to store the bits
-    final ByteBuffer data = ByteBuffer.allocate(numBytes);
-
     // Clear the 1 at the front of this byte, all the way to the beginning of the size
-    data.put((byte) (firstByte & ((0xFF >>> (numBytes)))));
-
-    if (numBytes > 1)
+    long size = firstByte & (0xFF >>> numBytes);
+    // Read the rest of the size.
+    for (int i = 1; i < numBytes; i++)
     {
-      // Read the rest of the size.
-      source.read(data);
+      size = (size << 8) | (source.readByte() & 0xFF);
     }
-    data.flip();
-    return parseEBMLCode(data);
+    return size;
   }
 
   /**
@@ -239,17 +537,17 @@ public class EBMLReader
     {
       return 0;
     }
-    data.mark();
 
     // Put this into a long
     long size = 0;
-    for (int i = data.remaining() - 1; i >= 0; i--)
+    for (int i = data.position(); i < data.limit(); i++)
+    {
+      size = (size << 8) | (data.get(i) & 0xFF);
+    }
+    if (LOG.isTraceEnabled())
     {
-      final long n = data.get() & 0xFF;
-      size = size | (n << (8 * i));
+      LOG.trace("Parsed ebml code {} as {}", bytesToHex(data), size);
     }
-    data.reset();
-    LOG.trace("Parsed ebml code {} as {}", bytesToHex(data.array()), size);
     return size;
   }
 
@@ -270,20 +568,14 @@ public class EBMLReader
       return 0;
     }
 
-    // Setup space to store the bits
-    final ByteBuffer data = ByteBuffer.allocate(numBytes);
-
     // Clear the 1 at the front of this byte, all the way to the beginning of the size
-    data.put((byte) (firstByte & ((0xFF >>> (numBytes)))));
-
+    long size = firstByte & (0xFF >>> numBytes);
     // Read the rest of the size.
     for (int i = 1; i < numBytes; i++)
     {
-      data.put(source.get());
+      size = (size << 8) | (source.get() & 0xFF);
     }
-
-    data.flip();
-    return parseEBMLCode(data);
+    return size;
   }
 
   /**
@@ -294,53 +586,14 @@ public class EBMLReader
    */
   public static long readSignedEBMLCode(final ByteBuffer source)
   {
-    // Begin loop with byte set to newly read byte.
-    final byte firstByte = source.get();
-    final int numBytes = readEBMLCodeSize(firstByte);
+    final int numBytes = readEBMLCodeSize(source.get(source.position()));
     if (numBytes == 0)
     {
       // Invalid size
+      source.get();
       return 0;
     }
-
-    // Setup space to store the bits
-    final ByteBuffer data = ByteBuffer.allocate(numBytes);
-
-    // Clear the 1 at the front of this byte, all the way to the beginning of the size
-    data.put((byte) (firstByte & ((0xFF >>> (numBytes)))));
-
-    // Read the rest of the size.
-    for (int i = 1; i < numBytes; i++)
-    {
-      data.put(source.get());
-    }
-
-    data.flip();
-    // Put this into a long
-    long size = parseEBMLCode(data);
-
-    // Sign it ;)
-    if (numBytes == 1)
-    {
-      size -= 63;
-
-    }
-    else if (numBytes == 2)
-    {
-      size -= 8191;
-
-    }
-    else if (numBytes == 3)
-    {
-      size -= 1048575;
-
-    }
-    else if (numBytes == 4)
-    {
-      size -= 134217727;
-    }
-
-    return size;
+    return signEBMLCode(readEBMLCode(source), numBytes);
   }
 
   /**
@@ -351,7 +604,6 @@ public class EBMLReader
    */
   public static long readSignedEBMLCode(final DataSource source)
   {
-
     // Begin loop with byte set to newly read byte.
     final byte firstByte = source.readByte();
     final int numBytes = readEBMLCodeSize(firstByte);
@@ -361,44 +613,14 @@ public class EBMLReader
       return 0;
     }
 
-    // Setup space to store the bits
-    final ByteBuffer data = ByteBuffer.allocate(numBytes);
-
     // Clear the 1 at the front of this byte, all the way to the beginning of the size
-    data.put((byte) (firstByte & ((0xFF >>> (numBytes)))));
-
-    if (numBytes > 1)
-    {
-      // Read the rest of the size.
-      source.read(data);
-    }
-
-    data.flip();
-    // Put this into a long
-    long size = parseEBMLCode(data);
-
-    // Sign it ;)
-    if (numBytes == 1)
-    {
-      size -= 63;
-
-    }
-    else if (numBytes == 2)
-    {
-      size -= 8191;
-
-    }
-    else if (numBytes == 3)
-    {
-      size -= 1048575;
-
-    }
-    else if (numBytes == 4)
+    long size = firstByte & (0xFF >>> numBytes);
+    // Read the rest of the size.
+    for (int i = 1; i < numBytes; i++)
     {
-      size -= 134217727;
+      size = (size << 8) | (source.readByte() & 0xFF);
     }
-
-    return size;
+    return signEBMLCode(size, numBytes);
   }
 
   /**
@@ -408,29 +630,19 @@ public class EBMLReader
    */
   public static ByteBuffer readEBMLCodeAsBytes(final DataSource source)
   {
-    // Begin loop with byte set to newly read byte.
-    final byte firstByte = source.readByte();
-    final int numBytes = readEBMLCodeSize(firstByte);
-
-    if (numBytes == 0)
+    final long code = readEBMLId(source);
+    if (code == 0)
     {
-      LOG.error("Failed to read ebml code size from {}", firstByte);
-      // Invalid size
       return null;
     }
-
-    // Setup space to store the bits
-    final ByteBuffer buf = ByteBuffer.allocate(numBytes);
-
-    buf.put(firstByte);
-
-    if (numBytes > 1)
-    {
-      // Read the rest of the size.
-      source.read(buf);
-    }
-    buf.flip();
-    return buf;
+    return ByteBuffer.wrap(Element.packInt(code, getEBMLIdLength(code)));
   }
 
+  /**
+   * Signed codes are stored with a bias of half the range of their length, which is removed here.
+   */
+  private static long signEBMLCode(final long code, final int numBytes)
+  {
+    return code - ((1L << (7 * numBytes - 1)) - 1);
+  }
 }
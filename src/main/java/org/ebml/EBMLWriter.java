@@ -19,14 +19,32 @@
  */
 package org.ebml;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 import org.ebml.io.DataWriter;
 
 /**
  * Summary description for EBMLWriter.
+ * <p>
+ * Besides writing whole elements, master elements can be streamed: startMaster() writes the header straight away with room reserved for the size,
+ * children are then written one at a time, and endMaster() goes back and fills in the size. Only the open masters are kept track of, so a large
+ * master never has to be held in memory. The size can only be filled in on a seekable <code>DataWriter</code>, on others it is written as unknown.
  */
 public class EBMLWriter
 {
+  /**
+   * Number of bytes reserved for the size of streamed masters by default, enough for any size
+   */
+  public static final int DEFAULT_SIZE_LENGTH = 8;
+
   protected DataWriter writer;
+  /**
+   * Positions of the size fields of the open masters, innermost last
+   */
+  private long[] sizePositions = new long[8];
+  private int[] sizeLengths = new int[8];
+  private int depth = 0;
 
   /**
    * Creates a new <code>EBMLReader</code> reading from the <code>DataSource
@@ -44,4 +62,85 @@ public class EBMLWriter
   {
     return elem.writeHeaderData(writer) + elem.writeData(writer);
   }
+
+  /**
+   * Starts a master element, with the default size length. Write its children, then call endMaster().
+   *
+   * @param type ID of the master element
+   * @return the number of bytes written for the header
+   */
+  public long startMaster(final ByteBuffer type)
+  {
+    return startMaster(type, DEFAULT_SIZE_LENGTH);
+  }
+
+  /**
+   * Starts a master element. Write its children, then call endMaster().
+   *
+   * @param type ID of the master element
+   * @param sizeLength Number of bytes to reserve for the size, from 1 to 8. The size of the finished element must fit in them.
+   * @return the number of bytes written for the header
+   */
+  public long startMaster(final ByteBuffer type, final int sizeLength)
+  {
+    if (sizeLength < 1 || sizeLength > 8)
+    {
+      throw new IllegalArgumentException("Size length must be between 1 and 8 bytes: " + sizeLength);
+    }
+    final ByteBuffer id = type.duplicate();
+    final int idLength = id.remaining();
+    writer.write(id);
+    if (depth == sizePositions.length)
+    {
+      sizePositions = Arrays.copyOf(sizePositions, depth * 2);
+      sizeLengths = Arrays.copyOf(sizeLengths, depth * 2);
+    }
+    sizePositions[depth] = writer.getFilePointer();
+    sizeLengths[depth] = sizeLength;
+    depth++;
+    // Unknown size until it is filled in, which is also what is left on writers that can't seek back
+    final byte[] size = new byte[sizeLength];
+    Arrays.fill(size, (byte) 0xFF);
+    size[0] = (byte) (0xFF >>> (sizeLength - 1));
+    writer.write(ByteBuffer.wrap(size));
+    return idLength + sizeLength;
+  }
+
+  /**
+   * Ends the innermost master element started with startMaster(), filling in its size if the writer is seekable.
+   *
+   * @return the size of the master element's data
+   */
+  public long endMaster()
+  {
+    if (depth == 0)
+    {
+      throw new IllegalStateException("No master element to end");
+    }
+    depth--;
+    final long sizePosition = sizePositions[depth];
+    final int sizeLength = sizeLengths[depth];
+    final long end = writer.getFilePointer();
+    final long size = end - sizePosition - sizeLength;
+    if (writer.isSeekable())
+    {
+      // All ones is reserved for unknown sizes
+      if (size >= (1L << (7 * sizeLength)) - 1)
+      {
+        throw new IllegalStateException("Master element of " + size + " bytes does not fit in a " + sizeLength + " byte size");
+      }
+      writer.seek(sizePosition);
+      writer.write(ByteBuffer.wrap(Element.makeEbmlCodedSize(size, sizeLength)));
+      writer.seek(end);
+    }
+    return size;
+  }
+
+  /**
+   * @return the number of master elements started and not ended yet
+   */
+  public int getDepth()
+  {
+    return depth;
+  }
 }
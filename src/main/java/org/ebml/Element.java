@@ -25,11 +25,15 @@ package org.ebml;
  * Created on November 19, 2002, 9:11 PM
  */
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.Arrays;
 
 import org.ebml.io.DataSource;
 import org.ebml.io.DataWriter;
+import org.ebml.io.FileDataSource;
+import org.ebml.io.SliceDataSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,6 +45,18 @@ import org.slf4j.LoggerFactory;
 public class Element
 {
   protected static final Logger LOG = LoggerFactory.getLogger(Element.class);
+  /**
+   * Largest size that can be coded, in 8 bytes
+   */
+  public static final long MAX_CODED_SIZE = (1L << 56) - 2;
+  /**
+   * Chunk size used by copyData()
+   */
+  private static final int COPY_BUFFER_SIZE = 64 * 1024;
+  /**
+   * Largest slice copyData() asks a <code>SliceDataSource</code> for at a time
+   */
+  private static final int COPY_SLICE_SIZE = 16 * 1024 * 1024;
   private static int minSizeLength = 0;
 
   protected Element parent;
@@ -49,7 +65,16 @@ public class Element
   protected long size = 0;
   protected ByteBuffer data = null;
   protected boolean dataRead = false;
+  /**
+   * Set when the size was written as unknown, as live streams do for masters. The size is then only an upper bound.
+   */
+  protected boolean unknownSize = false;
   private Long headersSize = null;
+  /**
+   * Where the data is, when it was read lazily and hasn't been loaded yet
+   */
+  private DataSource dataSource = null;
+  private long dataPosition = -1;
 
   /** Creates a new instance of Element */
   public Element(final byte[] type)
@@ -66,11 +91,26 @@ public class Element
    */
   public void readData(final DataSource source)
   {
-    // Setup a buffer for it's data
-    this.data = ByteBuffer.allocate((int) size);
-    // Read the data
-    source.read(this.data);
-    data.flip();
+    checkDataSize();
+    final ByteBuffer slice = source instanceof SliceDataSource ? ((SliceDataSource) source).readSlice((int) size) : null;
+    if (slice != null && slice.remaining() == size)
+    {
+      // Use the bytes in place rather than copying them
+      this.data = slice;
+    }
+    else
+    {
+      // Setup a buffer for it's data
+      this.data = ByteBuffer.allocate((int) size);
+      if (slice != null)
+      {
+        // Only part of the data was at hand in one piece
+        data.put(slice);
+      }
+      // Read the data
+      source.read(this.data);
+      data.flip();
+    }
     dataRead = true;
 
     LOG.trace("Read {} bytes from {}", size, typeInfo.getName());
@@ -89,6 +129,140 @@ public class Element
     }
   }
 
+  /**
+   * Records where the element data is in the source and skips it, instead of reading it. The data is only read if getData() is called, and
+   * transferTo() can pass it on without reading it into memory at all. The source must stay open while the element is in use, and it is moved
+   * around when the data is loaded, so the same thread should do both. Falls back on readData() if the source is not seekable.
+   */
+  public void readDataLazily(final DataSource source)
+  {
+    if (!source.isSeekable())
+    {
+      readData(source);
+      return;
+    }
+    data = null;
+    dataSource = source;
+    dataPosition = source.getFilePointer();
+    source.skip(size);
+    dataRead = true;
+  }
+
+  /**
+   * @return true if the data is in memory, false if it was read lazily and hasn't been needed yet
+   */
+  public boolean isDataLoaded()
+  {
+    return data != null;
+  }
+
+  /**
+   * Writes the element data to a channel. Data read lazily from a <code>FileDataSource</code> is transferred by the file channel without being
+   * copied into memory, from a <code>SliceDataSource</code> it is written from where the source holds it.
+   *
+   * @return the number of bytes written
+   */
+  public long transferTo(final WritableByteChannel target) throws IOException
+  {
+    if (data == null && dataSource instanceof FileDataSource)
+    {
+      return ((FileDataSource) dataSource).transferTo(dataPosition, size, target);
+    }
+    final ByteBuffer buf = getData();
+    long total = 0;
+    while (buf.hasRemaining())
+    {
+      total += target.write(buf);
+    }
+    return total;
+  }
+
+  /**
+   * Read the element data when its first bytes have already been read from the source, e.g. to peek at a header field
+   *
+   * @param head The bytes already read from the start of the data
+   */
+  public void readData(final DataSource source, final ByteBuffer head)
+  {
+    checkDataSize();
+    final ByteBuffer buf = ByteBuffer.allocate((int) size);
+    buf.put(head);
+    readDataInto(source, buf);
+  }
+
+  /**
+   * Read the element data into a buffer supplied by the caller, e.g. one taken from a pool, which then becomes the element data
+   *
+   * @param target Buffer with room for the data from its start. Any bytes before its position are taken as the start of the data, already read.
+   */
+  public void readDataInto(final DataSource source, final ByteBuffer target)
+  {
+    checkDataSize();
+    target.limit((int) size);
+    source.read(target);
+    target.flip();
+    this.data = target;
+    this.dataSource = null;
+    dataRead = true;
+  }
+
+  /**
+   * Skip the rest of the element data when its first bytes have already been read from the source
+   *
+   * @param consumed Number of bytes already read from the start of the data
+   */
+  public void skipData(final DataSource source, final long consumed)
+  {
+    if (!dataRead)
+    {
+      source.skip(size - consumed);
+      dataRead = true;
+    }
+  }
+
+  /**
+   * Copies the element data from the source to a writer a chunk at a time, for data too large to be held in one buffer by readData().
+   *
+   * @return the number of bytes copied, less than the size if the source ended early
+   */
+  public long copyData(final DataSource source, final DataWriter writer)
+  {
+    long remaining = size;
+    if (source instanceof SliceDataSource)
+    {
+      // Write straight from where the source holds the data
+      final SliceDataSource slices = (SliceDataSource) source;
+      while (remaining > 0)
+      {
+        final ByteBuffer chunk = slices.readSlice((int) Math.min(remaining, COPY_SLICE_SIZE));
+        if (!chunk.hasRemaining())
+        {
+          break;
+        }
+        remaining -= chunk.remaining();
+        writer.write(chunk);
+      }
+    }
+    else
+    {
+      final ByteBuffer chunk = ByteBuffer.allocate((int) Math.min(remaining, COPY_BUFFER_SIZE));
+      while (remaining > 0)
+      {
+        chunk.clear();
+        chunk.limit((int) Math.min(remaining, chunk.capacity()));
+        if (source.read(chunk) <= 0)
+        {
+          break;
+        }
+        chunk.flip();
+        remaining -= chunk.remaining();
+        writer.write(chunk);
+      }
+    }
+    dataRead = true;
+    return size - remaining;
+  }
+
   public long writeElement(final DataWriter writer)
   {
     LOG.trace("Writing element {} with size {}", typeInfo.getName(), getTotalSize());
@@ -123,6 +297,7 @@ public class Element
    */
   public long writeData(final DataWriter writer)
   {
+    loadData();
     if (data == null)
     {
       throw new NullPointerException(String.format("No data to write: %s : %s", typeInfo.getName(), Arrays.toString(this.type.array())));
@@ -130,7 +305,10 @@ public class Element
     data.mark();
     try
     {
-      LOG.trace("Writing data {} bytes of {}", data.remaining(), EBMLReader.bytesToHex(data.array()));
+      if (LOG.isTraceEnabled())
+      {
+        LOG.trace("Writing data {} bytes of {}", data.remaining(), EBMLReader.bytesToHex(data));
+      }
       return writer.write(data);
     }
     finally
@@ -139,6 +317,32 @@ public class Element
     }
   }
 
+  /**
+   * Reads data that was read lazily, leaving the source where it was
+   */
+  private void loadData()
+  {
+    if (data != null || dataSource == null)
+    {
+      return;
+    }
+    final DataSource source = dataSource;
+    final long position = source.getFilePointer();
+    source.seek(dataPosition);
+    readData(source);
+    source.seek(position);
+    dataSource = null;
+  }
+
+  private void checkDataSize()
+  {
+    if (size > Integer.MAX_VALUE)
+    {
+      throw new IllegalStateException(String.format("%s of %d bytes is too large to read into a buffer, copy or skip it instead",
+                                                    typeInfo.getName(), size));
+    }
+  }
+
   /**
    * Getter for property data.
    * 
@@ -147,6 +351,7 @@ public class Element
    */
   public ByteBuffer getData()
   {
+    loadData();
     return this.data.duplicate();
   }
 
@@ -158,6 +363,7 @@ public class Element
    */
   public void setData(final ByteBuffer data)
   {
+    this.dataSource = null;
     this.data = data;
     this.size = data.remaining();
   }
@@ -167,6 +373,7 @@ public class Element
    */
   public void clearData()
   {
+    this.dataSource = null;
     this.data = null;
   }
 
@@ -194,6 +401,16 @@ public class Element
     this.size = size;
   }
 
+  public boolean isUnknownSize()
+  {
+    return unknownSize;
+  }
+
+  public void setUnknownSize(final boolean unknownSize)
+  {
+    this.unknownSize = unknownSize;
+  }
+
   /**
    * Get the total size of this element
    */
@@ -346,24 +563,22 @@ public class Element
     return 8;
   }
 
+  /**
+   * Returns the number of bytes needed to code a size, from 1 to 8. A size of n bytes holds up to 2^(7n) - 2, all ones being reserved for unknown
+   * sizes.
+   *
+   * @throws IllegalArgumentException if the size is too large for 8 bytes
+   */
   public static int codedSizeLength(final long value, int minSizeLen)
   {
-    int codedSize = 0;
-    if (value < 127)
-    {
-      codedSize = 1;
-    }
-    else if (value < 16383)
-    {
-      codedSize = 2;
-    }
-    else if (value < 2097151)
+    if (value < 0 || value > MAX_CODED_SIZE)
     {
-      codedSize = 3;
+      throw new IllegalArgumentException("Size " + value + " can not be coded in 8 bytes");
     }
-    else if (value < 268435455)
+    int codedSize = 1;
+    while (value >= (1L << (7 * codedSize)) - 1)
     {
-      codedSize = 4;
+      codedSize++;
     }
     if ((minSizeLen > 0) && (codedSize <= minSizeLen))
     {
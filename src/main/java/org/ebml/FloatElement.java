@@ -65,25 +65,18 @@ public class FloatElement extends BinaryElement
    */
   public double getValue()
   {
-    data.mark();
-    try
+    final ByteBuffer buf = getData();
+    if (size == 4)
     {
-      if (size == 4)
-      {
-        return data.getFloat();
-      }
-      else if (size == 8)
-      {
-        return data.getDouble();
-      }
-      else
-      {
-        throw new ArithmeticException("80-bit floats are not supported");
-      }
+      return buf.getFloat();
     }
-    finally
+    else if (size == 8)
     {
-      data.reset();
+      return buf.getDouble();
+    }
+    else
+    {
+      throw new ArithmeticException("80-bit floats are not supported");
     }
   }
 }
@@ -28,6 +28,14 @@ public class MasterElement extends Element
 {
   protected long usedSize = 0;
   protected ArrayList<Element> children = new ArrayList<>();
+  /**
+   * The last child read, which may have found the element after it when it has an unknown size
+   */
+  private Element lastChild = null;
+  /**
+   * The element that ended this master when its size was unknown, to be read next by the parent
+   */
+  private Element terminator = null;
 
   public MasterElement(final byte[] type)
   {
@@ -39,26 +47,54 @@ public class MasterElement extends Element
     super();
   }
 
+  /**
+   * Reads the header of the next child element. A master of unknown size ends at the end of the source or at the first element that can't be its
+   * child, judging by the element levels; that element is then kept to be read as the parent's next child instead.
+   *
+   * @return the child, or null if there are no more
+   */
   public Element readNextChild(final EBMLReader reader)
   {
-    if (usedSize >= this.getSize())
+    // The size of an unknown size master is all ones, not a limit
+    if (!unknownSize && usedSize >= this.getSize())
     {
       LOG.trace("Can't read any more children");
       return null;
     }
 
-    final Element elem = reader.readNextElement();
+    final Element elem;
+    if (lastChild instanceof MasterElement && ((MasterElement) lastChild).terminator != null)
+    {
+      // An unknown size child ended where this element begins, its header has already been read
+      elem = ((MasterElement) lastChild).terminator;
+      ((MasterElement) lastChild).terminator = null;
+    }
+    else
+    {
+      elem = reader.readNextElement();
+    }
     if (elem == null)
     {
       LOG.debug("Reader returned null");
+      endUnknownSize(null);
+      return null;
+    }
+    if (unknownSize && !canContain(elem))
+    {
+      endUnknownSize(elem);
       return null;
     }
 
     elem.setParent(this);
+    lastChild = elem;
 
-    usedSize += elem.getTotalSize();
+    // The data of an unknown size child is counted once it has ended
+    usedSize += elem.isUnknownSize() ? elem.getTotalSize() - elem.getSize() : elem.getTotalSize();
 
-    LOG.trace("Read element {} of size {}: {} remaining", elem.typeInfo.getName(), elem.getTotalSize(), size - usedSize);
+    if (LOG.isTraceEnabled())
+    {
+      LOG.trace("Read element {} of size {}: {} remaining", elem.typeInfo.getName(), elem.getTotalSize(), size - usedSize);
+    }
     return elem;
   }
 
@@ -66,6 +102,18 @@ public class MasterElement extends Element
   @Override
   public void skipData(final DataSource source)
   {
+    if (unknownSize)
+    {
+      // The only way to find the end is to go through the children
+      final EBMLReader reader = new EBMLReader(source);
+      Element child = readNextChild(reader);
+      while (child != null)
+      {
+        child.skipData(source);
+        child = readNextChild(reader);
+      }
+      return;
+    }
     // Skip the child elements
     source.skip(size - usedSize);
   }
@@ -82,6 +130,55 @@ public class MasterElement extends Element
     return len;
   }
 
+  /**
+   * @return the number of bytes of this element's data that have been read as children so far
+   */
+  public long getUsedSize()
+  {
+    return usedSize;
+  }
+
+  /**
+   * Sets how much of this element's data has been read as children. Use this after moving the source to another child of this element, so that
+   * readNextChild() carries on from there.
+   *
+   * @param usedSize Offset of the source from the start of this element's data
+   */
+  public void setUsedSize(final long usedSize)
+  {
+    this.usedSize = usedSize;
+    lastChild = null;
+  }
+
+  /**
+   * Whether an element can be a child of this one. Global elements, with a negative level, can be anywhere.
+   */
+  boolean canContain(final Element elem)
+  {
+    final int childLevel = elem.getElementType().getLevel();
+    return childLevel < 0 || typeInfo == null || childLevel > typeInfo.getLevel();
+  }
+
+  /**
+   * Makes the size of an unknown size master known once its end has been found, and adds it to the parent's.
+   *
+   * @param next The element after this one, which belongs to an ancestor, or null at the end of the source
+   */
+  private void endUnknownSize(final Element next)
+  {
+    if (!unknownSize)
+    {
+      return;
+    }
+    unknownSize = false;
+    terminator = next;
+    size = usedSize;
+    if (parent instanceof MasterElement)
+    {
+      ((MasterElement) parent).usedSize += usedSize;
+    }
+  }
+
   public void addChildElement(final Element elem)
   {
     children.add(elem);
@@ -1,7 +1,7 @@
 package org.ebml;
 
+import java.lang.reflect.Constructor;
 import java.nio.ByteBuffer;
-import java.util.HashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -9,54 +9,73 @@ import org.slf4j.LoggerFactory;
 public class ProtoType<T extends Element>
 {
   private static final Logger LOG = LoggerFactory.getLogger(ProtoType.class);
-  private static final HashMap<Long, ProtoType<? extends Element>> CLASS_MAP = new HashMap<>();
+  private static volatile Registry registry = new Registry(64);
   Class<T> clazz;
+  private final Factory<T> factory;
   private final ByteBuffer type;
 
   private final String name;
   private final int level;
 
   public ProtoType(final Class<T> clazz, final String name, final byte[] type, final int level)
+  {
+    this(clazz, defaultFactory(clazz), name, type, level);
+  }
+
+  /**
+   * @param factory Creates the elements for this type, instead of the default one picked from the class
+   */
+  public ProtoType(final Class<T> clazz, final Factory<T> factory, final String name, final byte[] type, final int level)
   {
     this.clazz = clazz;
+    this.factory = factory;
     this.type = ByteBuffer.wrap(type);
     this.name = name;
     this.level = level;
     final long codename = EBMLReader.parseEBMLCode(this.type);
-    CLASS_MAP.put(codename, this);
+    register(codename, this);
     LOG.trace("Associating {} with {}", name, codename);
   }
 
   public T getInstance()
   {
     LOG.trace("Instantiating {}", name);
-    try
-    {
-      final T elem = clazz.newInstance();
-      elem.setType(type);
-      elem.setElementType(this);
-      return elem;
-    }
-    catch (InstantiationException | IllegalAccessException e)
-    {
-      LOG.error("Failed to instantiate: this should never happen!", e);
-      throw new RuntimeException(e);
-    }
+    final T elem = factory.create();
+    elem.setType(type);
+    elem.setElementType(this);
+    return elem;
   }
 
   public static Element getInstance(final ByteBuffer type)
   {
-    final long codename = EBMLReader.parseEBMLCode(type);
-    final ProtoType<? extends Element> eType = CLASS_MAP.get(Long.valueOf(codename));
+    return getInstance(EBMLReader.parseEBMLCode(type));
+  }
+
+  public static Element getInstance(final long codename)
+  {
+    final ProtoType<? extends Element> eType = registry.get(codename);
 
     if (eType == null) {
       return null;
     }
 
-    LOG.trace("Got codename {}, for element type {}", codename, eType.name);
+    if (LOG.isTraceEnabled())
+    {
+      LOG.trace("Got codename {}, for element type {}", codename, eType.name);
+    }
     return eType.getInstance();
   }
 
+  /**
+   * Looks up the type registered for an element ID without creating an element.
+   *
+   * @return the type, or null if the ID is unknown
+   */
+  public static ProtoType<? extends Element> getProtoType(final long codename)
+  {
+    return registry.get(codename);
+  }
+
   public String getName()
   {
     return name;
@@ -72,4 +91,227 @@ public class ProtoType<T extends Element>
     return type;
   }
 
+  private static synchronized void register(final long codename, final ProtoType<?> proto)
+  {
+    if (codename <= 0 || codename > Integer.MAX_VALUE)
+    {
+      LOG.warn("Element ID {} of {} is longer than 4 bytes and can not be read", codename, proto.name);
+      return;
+    }
+    // Copy on write so that lookups never need to lock
+    registry = registry.with((int) codename, proto);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T extends Element> Factory<T> defaultFactory(final Class<T> clazz)
+  {
+    if (clazz == MasterElement.class)
+    {
+      return (Factory<T>) new Factory<MasterElement>()
+      {
+        @Override
+        public MasterElement create()
+        {
+          return new MasterElement();
+        }
+      };
+    }
+    if (clazz == BinaryElement.class)
+    {
+      return (Factory<T>) new Factory<BinaryElement>()
+      {
+        @Override
+        public BinaryElement create()
+        {
+          return new BinaryElement();
+        }
+      };
+    }
+    if (clazz == UnsignedIntegerElement.class)
+    {
+      return (Factory<T>) new Factory<UnsignedIntegerElement>()
+      {
+        @Override
+        public UnsignedIntegerElement create()
+        {
+          return new UnsignedIntegerElement();
+        }
+      };
+    }
+    if (clazz == SignedIntegerElement.class)
+    {
+      return (Factory<T>) new Factory<SignedIntegerElement>()
+      {
+        @Override
+        public SignedIntegerElement create()
+        {
+          return new SignedIntegerElement();
+        }
+      };
+    }
+    if (clazz == StringElement.class)
+    {
+      return (Factory<T>) new Factory<StringElement>()
+      {
+        @Override
+        public StringElement create()
+        {
+          return new StringElement();
+        }
+      };
+    }
+    if (clazz == UTF8StringElement.class)
+    {
+      return (Factory<T>) new Factory<UTF8StringElement>()
+      {
+        @Override
+        public UTF8StringElement create()
+        {
+          return new UTF8StringElement();
+        }
+      };
+    }
+    if (clazz == FloatElement.class)
+    {
+      return (Factory<T>) new Factory<FloatElement>()
+      {
+        @Override
+        public FloatElement create()
+        {
+          return new FloatElement();
+        }
+      };
+    }
+    if (clazz == DateElement.class)
+    {
+      return (Factory<T>) new Factory<DateElement>()
+      {
+        @Override
+        public DateElement create()
+        {
+          return new DateElement();
+        }
+      };
+    }
+    return new ReflectionFactory<>(clazz);
+  }
+
+  /**
+   * Creates new, empty elements of a type.
+   */
+  public interface Factory<T extends Element>
+  {
+    T create();
+  }
+
+  /**
+   * Fallback for element classes without a dedicated factory. The constructor is looked up once rather than on every instantiation.
+   */
+  private static class ReflectionFactory<T extends Element> implements Factory<T>
+  {
+    private final Constructor<T> constructor;
+
+    ReflectionFactory(final Class<T> clazz)
+    {
+      try
+      {
+        constructor = clazz.getConstructor();
+      }
+      catch (final NoSuchMethodException e)
+      {
+        throw new IllegalArgumentException(clazz.getName() + " has no public default constructor", e);
+      }
+    }
+
+    @Override
+    public T create()
+    {
+      try
+      {
+        return constructor.newInstance();
+      }
+      catch (final ReflectiveOperationException e)
+      {
+        LOG.error("Failed to instantiate: this should never happen!", e);
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  /**
+   * Open addressing hash table from element ID to prototype. IDs are at most 4 bytes, and 0 is never a valid ID, so it marks empty slots. A table is
+   * never changed after it has been published, registering a type publishes a modified copy instead.
+   */
+  private static final class Registry
+  {
+    private final int[] ids;
+    private final ProtoType<?>[] protos;
+    private int count = 0;
+
+    Registry(final int capacity)
+    {
+      ids = new int[capacity];
+      protos = new ProtoType<?>[capacity];
+    }
+
+    ProtoType<?> get(final long codename)
+    {
+      if (codename <= 0 || codename > Integer.MAX_VALUE)
+      {
+        return null;
+      }
+      final int id = (int) codename;
+      final int mask = ids.length - 1;
+      int slot = hash(id) & mask;
+      while (ids[slot] != 0)
+      {
+        if (ids[slot] == id)
+        {
+          return protos[slot];
+        }
+        slot = (slot + 1) & mask;
+      }
+      return null;
+    }
+
+    /**
+     * @return a copy of this table with the prototype added, replacing any previous one with the same ID
+     */
+    Registry with(final int id, final ProtoType<?> proto)
+    {
+      // Keep the load factor under a half so probe sequences stay short
+      final Registry copy = new Registry((count + 1) * 2 > ids.length ? ids.length * 2 : ids.length);
+      for (int i = 0; i < ids.length; i++)
+      {
+        if (ids[i] != 0)
+        {
+          copy.put(ids[i], protos[i]);
+        }
+      }
+      copy.put(id, proto);
+      return copy;
+    }
+
+    private void put(final int id, final ProtoType<?> proto)
+    {
+      final int mask = ids.length - 1;
+      int slot = hash(id) & mask;
+      while (ids[slot] != 0 && ids[slot] != id)
+      {
+        slot = (slot + 1) & mask;
+      }
+      if (ids[slot] == 0)
+      {
+        count++;
+      }
+      ids[slot] = id;
+      protos[slot] = proto;
+    }
+
+    private static int hash(final int id)
+    {
+      final int h = id * 0x9E3779B9;
+      return h ^ (h >>> 16);
+    }
+  }
 }
@@ -56,17 +56,17 @@ public class SignedIntegerElement extends BinaryElement
 
   public long getValue()
   {
-    final byte[] dataArray = data.array();
-    long l = 0;
-    long tmp = 0;
-    l |= ((long) dataArray[0] << (56 - ((8 - dataArray.length) * 8)));
-    for (int i = 1; i < dataArray.length; i++)
+    final ByteBuffer buf = getData();
+    if (!buf.hasRemaining())
     {
-      tmp = ((long) dataArray[dataArray.length - i]) << 56;
-      tmp >>>= 56 - (8 * (i - 1));
-      l |= tmp;
+      return 0;
+    }
+    // The first byte carries the sign
+    long l = buf.get();
+    while (buf.hasRemaining())
+    {
+      l = (l << 8) | (buf.get() & 0xFF);
     }
-    // System.out.println(Long.toHexString(l));
     return l;
   }
 
@@ -59,7 +59,10 @@ public class StringElement extends BinaryElement
 
   public String getValue()
   {
-    return new String(data.array(), charset);
+    final ByteBuffer buf = getData();
+    final byte[] bytes = new byte[buf.remaining()];
+    buf.get(bytes);
+    return new String(bytes, charset);
   }
 
   public void setValue(final String value)
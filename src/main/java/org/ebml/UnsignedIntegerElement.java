@@ -53,6 +53,6 @@ public class UnsignedIntegerElement extends BinaryElement
 
   public long getValue()
   {
-    return EBMLReader.parseEBMLCode(data.duplicate());
+    return EBMLReader.parseEBMLCode(getData());
   }
 }
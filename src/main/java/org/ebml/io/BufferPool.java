@@ -0,0 +1,224 @@
+/**
+ * JEBML - Java library to read/write EBML/Matroska elements.
+ * Copyright (C) 2004 Jory Stone <jebml@jory.info>
+ * Based on Javatroska (C) 2002 John Cannon <spyder@matroska.org>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.ebml.io;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A pool of direct buffers, so that reading many frames a second doesn't allocate a new buffer for each of them. Buffers come in power of two sizes
+ * and each size keeps a limited number of free buffers; larger buffers than the pool handles are allocated when asked for and dropped when
+ * released. It is thread safe, buffers can be released by any thread.
+ * <p>
+ * With leak detection on, which is meant for debugging, the pool remembers where each buffer was acquired and logs that stack trace if a buffer is
+ * garbage collected without having been released.
+ */
+public class BufferPool
+{
+  public static final int DEFAULT_MAX_BUFFER_SIZE = 16 * 1024 * 1024;
+  public static final int DEFAULT_BUFFERS_PER_SIZE = 64;
+  private static final Logger LOG = LoggerFactory.getLogger(BufferPool.class);
+  private static final int MIN_BUFFER_SHIFT = 8;
+
+  private final int maxBufferSize;
+  private final int buffersPerSize;
+  // Free buffers and their number, by size, the smallest of 2^MIN_BUFFER_SHIFT bytes
+  private final List<Queue<ByteBuffer>> freeBuffers = new ArrayList<>();
+  private final List<AtomicInteger> freeCounts = new ArrayList<>();
+
+  private volatile boolean leakDetection = false;
+  private final ReferenceQueue<PooledBuffer> leakQueue = new ReferenceQueue<>();
+  /**
+   * Keeps the trackers of buffers in use reachable until they are released or collected
+   */
+  private final Set<LeakTracker> trackers = Collections.newSetFromMap(new ConcurrentHashMap<LeakTracker, Boolean>());
+  private final AtomicInteger leakCount = new AtomicInteger();
+
+  public BufferPool()
+  {
+    this(DEFAULT_MAX_BUFFER_SIZE, DEFAULT_BUFFERS_PER_SIZE);
+  }
+
+  /**
+   * @param maxBufferSize Largest buffer size that is pooled
+   * @param buffersPerSize Maximum number of free buffers kept of each size
+   */
+  public BufferPool(final int maxBufferSize, final int buffersPerSize)
+  {
+    if (maxBufferSize < 1 || buffersPerSize < 0)
+    {
+      throw new IllegalArgumentException("Buffer size must be positive and the number of buffers not negative");
+    }
+    this.maxBufferSize = maxBufferSize;
+    this.buffersPerSize = buffersPerSize;
+    for (int capacity = 1 << MIN_BUFFER_SHIFT; capacity > 0 && capacity / 2 < maxBufferSize; capacity <<= 1)
+    {
+      freeBuffers.add(new ConcurrentLinkedQueue<ByteBuffer>());
+      freeCounts.add(new AtomicInteger());
+    }
+  }
+
+  /**
+   * Takes a buffer of at least <code>size</code> bytes, reusing a free one if there is one. Release it when done.
+   */
+  public PooledBuffer acquire(final int size)
+  {
+    if (leakDetection)
+    {
+      reportLeaks();
+    }
+    final int index = sizeIndex(size);
+    ByteBuffer buffer = null;
+    if (index < freeBuffers.size())
+    {
+      buffer = freeBuffers.get(index).poll();
+      if (buffer == null)
+      {
+        buffer = ByteBuffer.allocateDirect(1 << (index + MIN_BUFFER_SHIFT));
+      }
+      else
+      {
+        freeCounts.get(index).decrementAndGet();
+      }
+    }
+    else
+    {
+      buffer = ByteBuffer.allocateDirect(size);
+    }
+    buffer.clear();
+    buffer.limit(size);
+    final PooledBuffer pooled = new PooledBuffer(this, buffer);
+    if (leakDetection)
+    {
+      final LeakTracker tracker = new LeakTracker(pooled, leakQueue, new Throwable("Buffer of " + size + " bytes acquired here"));
+      trackers.add(tracker);
+      pooled.setTracker(tracker);
+    }
+    return pooled;
+  }
+
+  public boolean isLeakDetection()
+  {
+    return leakDetection;
+  }
+
+  /**
+   * Turns leak detection on or off. It keeps a stack trace for every buffer acquired, so it is only meant for debugging.
+   */
+  public void setLeakDetection(final boolean leakDetection)
+  {
+    this.leakDetection = leakDetection;
+  }
+
+  /**
+   * Logs the buffers that have been garbage collected without being released since the last check.
+   *
+   * @return the total number of leaks found so far
+   */
+  public int reportLeaks()
+  {
+    Reference<? extends PooledBuffer> ref = leakQueue.poll();
+    while (ref != null)
+    {
+      final LeakTracker tracker = (LeakTracker) ref;
+      if (trackers.remove(tracker))
+      {
+        leakCount.incrementAndGet();
+        LOG.error("Pooled buffer was garbage collected without being released", tracker.trace);
+      }
+      ref = leakQueue.poll();
+    }
+    return leakCount.get();
+  }
+
+  /**
+   * @return the number of free buffers held by the pool
+   */
+  public int getFreeCount()
+  {
+    int count = 0;
+    for (final AtomicInteger freeCount: freeCounts)
+    {
+      count += freeCount.get();
+    }
+    return count;
+  }
+
+  void recycle(final ByteBuffer buffer, final LeakTracker tracker)
+  {
+    if (tracker != null)
+    {
+      trackers.remove(tracker);
+      tracker.clear();
+    }
+    final int index = sizeIndex(buffer.capacity());
+    if (index >= freeBuffers.size() || buffer.capacity() != 1 << (index + MIN_BUFFER_SHIFT))
+    {
+      // Not one of ours
+      return;
+    }
+    if (freeCounts.get(index).incrementAndGet() > buffersPerSize)
+    {
+      freeCounts.get(index).decrementAndGet();
+      return;
+    }
+    freeBuffers.get(index).add(buffer);
+  }
+
+  /**
+   * @return the index of the smallest pooled size that holds <code>size</code> bytes, which may be past the largest
+   */
+  private int sizeIndex(final int size)
+  {
+    if (size > maxBufferSize)
+    {
+      return freeBuffers.size();
+    }
+    final int bits = 32 - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1);
+    return Math.max(0, bits - MIN_BUFFER_SHIFT);
+  }
+
+  /**
+   * Notices when a buffer handed out becomes unreachable
+   */
+  static final class LeakTracker extends PhantomReference<PooledBuffer>
+  {
+    private final Throwable trace;
+
+    LeakTracker(final PooledBuffer referent, final ReferenceQueue<? super PooledBuffer> queue, final Throwable trace)
+    {
+      super(referent, queue);
+      this.trace = trace;
+    }
+  }
+}
@@ -0,0 +1,251 @@
+/**
+ * JEBML - Java library to read/write EBML/Matroska elements.
+ * Copyright (C) 2004 Jory Stone <jebml@jory.info>
+ * Based on Javatroska (C) 2002 John Cannon <spyder@matroska.org>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.ebml.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A <code>DataSource</code> that reads ahead from another <code>DataSource</code> in large chunks. Single byte reads, small reads, skips and seeks
+ * that land inside the current read-ahead window are served from memory without touching the underlying source. Slices of the window can be
+ * handed out with {@link #readSlice(int)}, after which the next chunk is read into a new window rather than over them.
+ */
+public class BufferedDataSource implements SliceDataSource, AutoCloseable
+{
+  public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+  private final DataSource source;
+  private ByteBuffer buffer;
+  /**
+   * Position in the underlying source of the first byte in the buffer
+   */
+  private long windowStart;
+  /**
+   * Set once a slice of the buffer has been handed out, so it must not be read over
+   */
+  private boolean sliced = false;
+
+  public BufferedDataSource(final DataSource source)
+  {
+    this(source, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * @param source DataSource to read from
+   * @param bufferSize Size of the read-ahead window in bytes
+   */
+  public BufferedDataSource(final DataSource source, final int bufferSize)
+  {
+    if (bufferSize < 1)
+    {
+      throw new IllegalArgumentException("Buffer size must be positive");
+    }
+    this.source = source;
+    this.buffer = ByteBuffer.allocate(bufferSize);
+    this.buffer.limit(0);
+    this.windowStart = source.getFilePointer();
+  }
+
+  @Override
+  public byte readByte()
+  {
+    if (!buffer.hasRemaining() && !fill())
+    {
+      return 0;
+    }
+    return buffer.get();
+  }
+
+  @Override
+  public int read(final ByteBuffer buff)
+  {
+    int total = 0;
+    while (buff.hasRemaining())
+    {
+      if (buffer.hasRemaining())
+      {
+        total += copyTo(buff);
+      }
+      else if (buff.remaining() >= buffer.capacity())
+      {
+        // Large reads go straight to the destination to avoid copying them twice
+        final int start = buff.position();
+        source.read(buff);
+        final int count = buff.position() - start;
+        if (count <= 0)
+        {
+          break;
+        }
+        total += count;
+        windowStart += buffer.limit() + count;
+        buffer.limit(0);
+      }
+      else if (!fill())
+      {
+        break;
+      }
+    }
+    if (total == 0 && buff.hasRemaining())
+    {
+      return -1;
+    }
+    return total;
+  }
+
+  /**
+   * Returns the next bytes as a read-only slice of the read-ahead window. Only the bytes in the window are returned, so the slice can be shorter
+   * than <code>count</code> even before the end of the source.
+   */
+  @Override
+  public ByteBuffer readSlice(final int count)
+  {
+    if (!buffer.hasRemaining() && !fill())
+    {
+      return ByteBuffer.allocate(0);
+    }
+    final ByteBuffer slice = buffer.duplicate();
+    slice.limit(slice.position() + Math.min(count, buffer.remaining()));
+    buffer.position(slice.limit());
+    sliced = true;
+    return slice.slice().asReadOnlyBuffer();
+  }
+
+  @Override
+  public boolean unread(final int count)
+  {
+    if (count > buffer.position())
+    {
+      return false;
+    }
+    buffer.position(buffer.position() - count);
+    return true;
+  }
+
+  @Override
+  public long skip(final long offset)
+  {
+    if (offset <= buffer.remaining())
+    {
+      buffer.position(buffer.position() + (int) offset);
+      return offset;
+    }
+    if (source.isSeekable())
+    {
+      final long start = getFilePointer();
+      return seek(start + offset) - start;
+    }
+    final long buffered = buffer.remaining();
+    final long skipped = source.skip(offset - buffered);
+    windowStart += buffer.limit() + skipped;
+    buffer.limit(0);
+    return buffered + skipped;
+  }
+
+  @Override
+  public long length()
+  {
+    return source.length();
+  }
+
+  @Override
+  public long getFilePointer()
+  {
+    return windowStart + buffer.position();
+  }
+
+  @Override
+  public boolean isSeekable()
+  {
+    return source.isSeekable();
+  }
+
+  @Override
+  public long seek(final long pos)
+  {
+    if (pos >= windowStart && pos <= windowStart + buffer.limit())
+    {
+      buffer.position((int) (pos - windowStart));
+      return pos;
+    }
+    final long newPos = source.seek(pos);
+    if (newPos < 0)
+    {
+      return newPos;
+    }
+    windowStart = newPos;
+    buffer.limit(0);
+    return newPos;
+  }
+
+  /**
+   * @return the size of the read-ahead window in bytes
+   */
+  public int getBufferSize()
+  {
+    return buffer.capacity();
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    if (source instanceof AutoCloseable)
+    {
+      try
+      {
+        ((AutoCloseable) source).close();
+      }
+      catch (final IOException ex)
+      {
+        throw ex;
+      }
+      catch (final Exception ex)
+      {
+        throw new IOException(ex);
+      }
+    }
+  }
+
+  /**
+   * Moves the window to the end of the current one and reads the next chunk from the source.
+   *
+   * @return false if no more data could be read
+   */
+  private boolean fill()
+  {
+    windowStart += buffer.limit();
+    if (sliced)
+    {
+      buffer = ByteBuffer.allocate(buffer.capacity());
+      sliced = false;
+    }
+    buffer.clear();
+    source.read(buffer);
+    buffer.flip();
+    return buffer.hasRemaining();
+  }
+
+  private int copyTo(final ByteBuffer buff)
+  {
+    final int count = Math.min(buff.remaining(), buffer.remaining());
+    buff.put(buffer.array(), buffer.arrayOffset() + buffer.position(), count);
+    buffer.position(buffer.position() + count);
+    return count;
+  }
+}
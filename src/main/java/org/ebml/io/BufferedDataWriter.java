@@ -0,0 +1,223 @@
+/**
+ * JEBML - Java library to read/write EBML/Matroska elements.
+ * Copyright (C) 2004 Jory Stone <jebml@jory.info>
+ * Based on Javatroska (C) 2002 John Cannon <spyder@matroska.org>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.ebml.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A <code>DataWriter</code> that collects writes in a large buffer and passes them on to another <code>DataWriter</code> in big chunks, so that
+ * the many small element headers and values don't each become a write of their own. Seeking back into the bytes still in the buffer patches them in
+ * place; seeking anywhere else flushes the buffer first. Call flush() or close() when done, or the last bytes are never written.
+ */
+public class BufferedDataWriter implements DataWriter, AutoCloseable
+{
+  public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+  private final DataWriter writer;
+  private final ByteBuffer buffer;
+  /**
+   * Position in the underlying writer of the first byte in the buffer. The underlying writer is always left here until the buffer is flushed.
+   */
+  private long bufferStart;
+  /**
+   * Number of bytes in the buffer, which is more than its position after seeking back
+   */
+  private int bufferEnd = 0;
+
+  public BufferedDataWriter(final DataWriter writer)
+  {
+    this(writer, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * @param writer DataWriter to write to
+   * @param bufferSize Size of the write buffer in bytes
+   */
+  public BufferedDataWriter(final DataWriter writer, final int bufferSize)
+  {
+    if (bufferSize < 1)
+    {
+      throw new IllegalArgumentException("Buffer size must be positive");
+    }
+    this.writer = writer;
+    this.buffer = ByteBuffer.allocateDirect(bufferSize);
+    this.bufferStart = writer.getFilePointer();
+  }
+
+  @Override
+  public int write(final byte b)
+  {
+    if (!buffer.hasRemaining())
+    {
+      flush();
+    }
+    buffer.put(b);
+    bufferEnd = Math.max(bufferEnd, buffer.position());
+    return 1;
+  }
+
+  @Override
+  public int write(final ByteBuffer buff)
+  {
+    final int count = buff.remaining();
+    if (count > buffer.remaining())
+    {
+      flush();
+      if (count > buffer.capacity())
+      {
+        // Large writes go straight through rather than being copied
+        final int written = writer.write(buff);
+        bufferStart += written;
+        return written;
+      }
+    }
+    buffer.put(buff);
+    bufferEnd = Math.max(bufferEnd, buffer.position());
+    return count;
+  }
+
+  @Override
+  public long write(final ByteBuffer[] buffs)
+  {
+    long count = 0;
+    for (final ByteBuffer buff: buffs)
+    {
+      count += buff.remaining();
+    }
+    if (count <= buffer.remaining())
+    {
+      for (final ByteBuffer buff: buffs)
+      {
+        buffer.put(buff);
+      }
+      bufferEnd = Math.max(bufferEnd, buffer.position());
+      return count;
+    }
+    if (bufferEnd != buffer.position())
+    {
+      flush();
+    }
+    // Send whatever is buffered along with the new data in one gathering write, without copying the new data
+    final ByteBuffer pending = buffer.duplicate();
+    pending.flip();
+    final ByteBuffer[] all = new ByteBuffer[buffs.length + 1];
+    all[0] = pending;
+    System.arraycopy(buffs, 0, all, 1, buffs.length);
+    final long written = writer.write(all);
+    bufferStart += written;
+    buffer.clear();
+    bufferEnd = 0;
+    return written - pending.limit();
+  }
+
+  @Override
+  public long length()
+  {
+    return Math.max(writer.length(), bufferStart + bufferEnd);
+  }
+
+  @Override
+  public long getFilePointer()
+  {
+    return bufferStart + buffer.position();
+  }
+
+  @Override
+  public boolean isSeekable()
+  {
+    return writer.isSeekable();
+  }
+
+  @Override
+  public long seek(final long pos)
+  {
+    if (pos >= bufferStart && pos <= bufferStart + bufferEnd)
+    {
+      buffer.position((int) (pos - bufferStart));
+      return pos;
+    }
+    flush();
+    final long newPos = writer.seek(pos);
+    if (newPos >= 0)
+    {
+      bufferStart = newPos;
+    }
+    return newPos;
+  }
+
+  /**
+   * Writes out the buffered bytes, leaving the underlying writer at the current position.
+   */
+  public void flush()
+  {
+    if (bufferEnd == 0)
+    {
+      return;
+    }
+    final ByteBuffer pending = buffer.duplicate();
+    pending.position(0);
+    pending.limit(bufferEnd);
+    while (pending.hasRemaining())
+    {
+      if (writer.write(pending) <= 0)
+      {
+        break;
+      }
+    }
+    final long position = bufferStart + buffer.position();
+    if (buffer.position() != bufferEnd)
+    {
+      writer.seek(position);
+    }
+    bufferStart = position;
+    buffer.clear();
+    bufferEnd = 0;
+  }
+
+  /**
+   * @return the size of the write buffer in bytes
+   */
+  public int getBufferSize()
+  {
+    return buffer.capacity();
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    flush();
+    if (writer instanceof AutoCloseable)
+    {
+      try
+      {
+        ((AutoCloseable) writer).close();
+      }
+      catch (final IOException ex)
+      {
+        throw ex;
+      }
+      catch (final Exception ex)
+      {
+        throw new IOException(ex);
+      }
+    }
+  }
+}
@@ -0,0 +1,174 @@
+/**
+ * JEBML - Java library to read/write EBML/Matroska elements.
+ * Copyright (C) 2004 Jory Stone <jebml@jory.info>
+ * Based on Javatroska (C) 2002 John Cannon <spyder@matroska.org>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.ebml.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A <code>DataWriter</code> over any <code>WritableByteChannel</code>, such as a pipe or a socket. It can't seek, so it only counts the bytes
+ * written for its position. The channel must be in blocking mode. A write that fails, e.g. on a closed socket or a broken pipe, throws a
+ * RuntimeException holding the IOException rather than returning a short count, since nothing can go back and write the rest.
+ */
+public class ChannelDataWriter implements DataWriter, AutoCloseable
+{
+  private final WritableByteChannel channel;
+  private long position = 0;
+
+  /**
+   * @throws IllegalArgumentException if the channel is in non-blocking mode
+   */
+  public ChannelDataWriter(final WritableByteChannel channel)
+  {
+    checkBlocking(channel);
+    this.channel = channel;
+  }
+
+  @Override
+  public int write(final byte b)
+  {
+    return write(ByteBuffer.wrap(new byte[] {b }));
+  }
+
+  @Override
+  public int write(final ByteBuffer buff)
+  {
+    int total = 0;
+    try
+    {
+      while (buff.hasRemaining())
+      {
+        total += (int) checkWritten(channel.write(buff));
+      }
+    }
+    catch (final IOException ex)
+    {
+      throw failed(total, ex);
+    }
+    finally
+    {
+      position += total;
+    }
+    return total;
+  }
+
+  @Override
+  public long write(final ByteBuffer[] buffs)
+  {
+    long total = 0;
+    try
+    {
+      if (channel instanceof GatheringByteChannel)
+      {
+        int offset = 0;
+        while (offset < buffs.length && !buffs[offset].hasRemaining())
+        {
+          offset++;
+        }
+        while (offset < buffs.length)
+        {
+          total += checkWritten(((GatheringByteChannel) channel).write(buffs, offset, buffs.length - offset));
+          while (offset < buffs.length && !buffs[offset].hasRemaining())
+          {
+            offset++;
+          }
+        }
+      }
+      else
+      {
+        for (final ByteBuffer buff: buffs)
+        {
+          while (buff.hasRemaining())
+          {
+            total += checkWritten(channel.write(buff));
+          }
+        }
+      }
+    }
+    catch (final IOException ex)
+    {
+      throw failed(total, ex);
+    }
+    finally
+    {
+      position += total;
+    }
+    return total;
+  }
+
+  @Override
+  public long length()
+  {
+    return position;
+  }
+
+  @Override
+  public long getFilePointer()
+  {
+    return position;
+  }
+
+  @Override
+  public boolean isSeekable()
+  {
+    return false;
+  }
+
+  @Override
+  public long seek(final long pos)
+  {
+    return pos == position ? position : -1;
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    channel.close();
+  }
+
+  private static void checkBlocking(final WritableByteChannel channel)
+  {
+    if (channel instanceof SelectableChannel && !((SelectableChannel) channel).isBlocking())
+    {
+      throw new IllegalArgumentException("The channel must be in blocking mode");
+    }
+  }
+
+  /**
+   * A blocking channel writes at least one byte of what it is given, so nothing written means it was switched to non-blocking mode since, which
+   * would otherwise spin here.
+   */
+  private static long checkWritten(final long written) throws IOException
+  {
+    if (written == 0)
+    {
+      throw new IOException("Nothing written, the channel must be in blocking mode");
+    }
+    return written;
+  }
+
+  private RuntimeException failed(final long written, final IOException ex)
+  {
+    return new RuntimeException("Writing failed after " + (position + written) + " bytes", ex);
+  }
+}
@@ -32,4 +32,11 @@ public interface DataWriter extends DataSeekable
   int write(byte b);
 
   int write(ByteBuffer buff);
+
+  /**
+   * Writes the remaining bytes of all the buffers, in order, as one gathering write where the destination supports it.
+   *
+   * @return the number of bytes written
+   */
+  long write(ByteBuffer[] buffs);
 }
@@ -24,6 +24,7 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 public class FileDataSource implements DataSource, AutoCloseable
 {
@@ -73,7 +74,11 @@ public class FileDataSource implements DataSource, AutoCloseable
   {
     try
     {
-      return file.skipBytes((int) offset);
+      // Like skipBytes(), but not limited to an int
+      final long start = file.getFilePointer();
+      final long end = Math.min(start + offset, file.length());
+      file.seek(end);
+      return end - start;
     }
     catch (final IOException ex)
     {
@@ -81,6 +86,26 @@ public class FileDataSource implements DataSource, AutoCloseable
     }
   }
 
+  /**
+   * Transfers bytes of the file to a channel without copying them through the Java heap, where the platform allows. The file pointer does not move.
+   *
+   * @return the number of bytes transferred, less than <code>count</code> if the file ends first
+   */
+  public long transferTo(final long position, final long count, final WritableByteChannel target) throws IOException
+  {
+    long total = 0;
+    while (total < count)
+    {
+      final long transferred = fc.transferTo(position + total, count - total, target);
+      if (transferred <= 0)
+      {
+        break;
+      }
+      total += transferred;
+    }
+    return total;
+  }
+
   @Override
   public long length()
   {
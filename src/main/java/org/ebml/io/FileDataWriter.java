@@ -25,7 +25,7 @@ import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 
-public class FileDataWriter implements DataWriter
+public class FileDataWriter implements DataWriter, AutoCloseable
 {
   RandomAccessFile file = null;
   FileChannel fc = null;
@@ -69,6 +69,30 @@ public class FileDataWriter implements DataWriter
     }
   }
 
+  @Override
+  public long write(final ByteBuffer[] buffs)
+  {
+    long total = 0;
+    try
+    {
+      // A gathering write may stop short, so carry on from the first buffer with bytes left
+      int offset = 0;
+      while (offset < buffs.length)
+      {
+        total += fc.write(buffs, offset, buffs.length - offset);
+        while (offset < buffs.length && !buffs[offset].hasRemaining())
+        {
+          offset++;
+        }
+      }
+      return total;
+    }
+    catch (final IOException ex)
+    {
+      return total;
+    }
+  }
+
   @Override
   public long length()
   {
@@ -115,6 +139,7 @@ public class FileDataWriter implements DataWriter
     }
   }
 
+  @Override
   public void close() throws IOException
   {
     file.close();
@@ -0,0 +1,224 @@
+/**
+ * JEBML - Java library to read/write EBML/Matroska elements.
+ * Copyright (C) 2004 Jory Stone <jebml@jory.info>
+ * Based on Javatroska (C) 2002 John Cannon <spyder@matroska.org>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.ebml.io;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A <code>DataSource</code> reading a file through memory mapped windows. Only one window of the file is mapped at a time, and it slides along as
+ * the file is read, so files of any size can be read. Element payloads can be handed out as slices of the mapping with {@link #readSlice(int)}
+ * instead of being copied onto the heap.
+ */
+public class MappedFileDataSource implements SliceDataSource, AutoCloseable
+{
+  public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+  private final RandomAccessFile file;
+  private final FileChannel fc;
+  private final long length;
+  private final int windowSize;
+  private MappedByteBuffer window = null;
+  /**
+   * Position in the file of the first byte in the window, or the current position if nothing is mapped
+   */
+  private long windowStart = 0;
+
+  public MappedFileDataSource(final String filename) throws FileNotFoundException, IOException
+  {
+    this(filename, DEFAULT_WINDOW_SIZE);
+  }
+
+  /**
+   * @param filename File to read
+   * @param windowSize Number of bytes of the file to map at a time
+   */
+  public MappedFileDataSource(final String filename, final int windowSize) throws FileNotFoundException, IOException
+  {
+    if (windowSize < 1)
+    {
+      throw new IllegalArgumentException("Window size must be positive");
+    }
+    this.file = new RandomAccessFile(filename, "r");
+    this.fc = file.getChannel();
+    this.length = fc.size();
+    this.windowSize = windowSize;
+  }
+
+  @Override
+  public byte readByte()
+  {
+    if (!ensureMapped(1))
+    {
+      return 0;
+    }
+    return window.get();
+  }
+
+  @Override
+  public int read(final ByteBuffer buff)
+  {
+    int total = 0;
+    while (buff.hasRemaining() && ensureMapped(1))
+    {
+      final int count = Math.min(buff.remaining(), window.remaining());
+      final int limit = window.limit();
+      window.limit(window.position() + count);
+      buff.put(window);
+      window.limit(limit);
+      total += count;
+    }
+    if (total == 0 && buff.hasRemaining())
+    {
+      return -1;
+    }
+    return total;
+  }
+
+  /**
+   * Returns the next <code>count</code> bytes as a read-only slice of the mapping, without copying them, and advances past them.
+   *
+   * @param count Number of bytes to read
+   * @return Slice of the mapping positioned at zero, possibly shorter than <code>count</code> at the end of the file
+   */
+  @Override
+  public ByteBuffer readSlice(final int count)
+  {
+    if (!ensureMapped(count))
+    {
+      return ByteBuffer.allocate(0);
+    }
+    final int limit = window.limit();
+    window.limit(window.position() + Math.min(count, window.remaining()));
+    final ByteBuffer slice = window.slice();
+    window.position(window.limit());
+    window.limit(limit);
+    return slice;
+  }
+
+  @Override
+  public boolean unread(final int count)
+  {
+    if (window == null || count > window.position())
+    {
+      return false;
+    }
+    window.position(window.position() - count);
+    return true;
+  }
+
+  @Override
+  public long skip(final long offset)
+  {
+    final long start = getFilePointer();
+    return seek(Math.min(start + offset, length)) - start;
+  }
+
+  @Override
+  public long length()
+  {
+    return length;
+  }
+
+  @Override
+  public long getFilePointer()
+  {
+    if (window == null)
+    {
+      return windowStart;
+    }
+    return windowStart + window.position();
+  }
+
+  @Override
+  public boolean isSeekable()
+  {
+    return true;
+  }
+
+  @Override
+  public long seek(final long pos)
+  {
+    if (pos < 0 || pos > length)
+    {
+      return -1;
+    }
+    if (window != null && pos >= windowStart && pos <= windowStart + window.limit())
+    {
+      window.position((int) (pos - windowStart));
+    }
+    else
+    {
+      // Map lazily on the next read
+      window = null;
+      windowStart = pos;
+    }
+    return pos;
+  }
+
+  public int getWindowSize()
+  {
+    return windowSize;
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    window = null;
+    fc.close();
+    file.close();
+  }
+
+  /**
+   * Makes sure the window holds at least <code>count</code> bytes from the current position, or everything up to the end of the file, remapping it
+   * at the current position if needed.
+   *
+   * @return false if the end of the file has been reached
+   */
+  private boolean ensureMapped(final int count)
+  {
+    final long pos = getFilePointer();
+    if (pos >= length)
+    {
+      return false;
+    }
+    if (window != null && (window.remaining() >= count || windowStart + window.limit() >= length))
+    {
+      return true;
+    }
+    final long size = Math.min(Math.max(windowSize, count), length - pos);
+    try
+    {
+      window = fc.map(FileChannel.MapMode.READ_ONLY, pos, size);
+      windowStart = pos;
+      return true;
+    }
+    catch (final IOException ex)
+    {
+      window = null;
+      windowStart = pos;
+      return false;
+    }
+  }
+}
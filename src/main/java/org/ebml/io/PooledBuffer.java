@@ -0,0 +1,106 @@
+/**
+ * JEBML - Java library to read/write EBML/Matroska elements.
+ * Copyright (C) 2004 Jory Stone <jebml@jory.info>
+ * Based on Javatroska (C) 2002 John Cannon <spyder@matroska.org>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.ebml.io;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A direct buffer lent out by a <code>BufferPool</code>, with a reference count. It starts with one reference; everything that keeps the buffer, or
+ * a view of it, calls retain() and later release(). The buffer goes back to the pool when the last reference is released, after which none of its
+ * views may be used.
+ */
+public final class PooledBuffer
+{
+  private final BufferPool pool;
+  private final ByteBuffer buffer;
+  private final AtomicInteger refCount = new AtomicInteger(1);
+  /**
+   * Set when the pool watches for leaks. It must not keep this reachable, so it is made after this.
+   */
+  private BufferPool.LeakTracker tracker = null;
+
+  PooledBuffer(final BufferPool pool, final ByteBuffer buffer)
+  {
+    this.pool = pool;
+    this.buffer = buffer;
+  }
+
+  /**
+   * @return the buffer, cleared and limited to the size asked for. Its capacity may be larger.
+   */
+  public ByteBuffer getBuffer()
+  {
+    return buffer;
+  }
+
+  /**
+   * Adds a reference.
+   *
+   * @throws IllegalStateException if the buffer has already gone back to the pool
+   */
+  public PooledBuffer retain()
+  {
+    while (true)
+    {
+      final int count = refCount.get();
+      if (count <= 0)
+      {
+        throw new IllegalStateException("Buffer has already been released");
+      }
+      if (refCount.compareAndSet(count, count + 1))
+      {
+        return this;
+      }
+    }
+  }
+
+  /**
+   * Drops a reference, returning the buffer to the pool if it was the last one.
+   *
+   * @return true if the buffer went back to the pool
+   * @throws IllegalStateException if the buffer has already gone back to the pool
+   */
+  public boolean release()
+  {
+    final int count = refCount.decrementAndGet();
+    if (count < 0)
+    {
+      refCount.incrementAndGet();
+      throw new IllegalStateException("Buffer has already been released");
+    }
+    if (count > 0)
+    {
+      return false;
+    }
+    pool.recycle(buffer, tracker);
+    return true;
+  }
+
+  public int getRefCount()
+  {
+    return refCount.get();
+  }
+
+  void setTracker(final BufferPool.LeakTracker tracker)
+  {
+    this.tracker = tracker;
+  }
+}
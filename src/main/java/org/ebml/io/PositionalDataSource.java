@@ -0,0 +1,198 @@
+/**
+ * JEBML - Java library to read/write EBML/Matroska elements.
+ * Copyright (C) 2004 Jory Stone <jebml@jory.info>
+ * Based on Javatroska (C) 2002 John Cannon <spyder@matroska.org>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.ebml.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+
+/**
+ * A <code>DataSource</code> cursor over a <code>FileChannel</code> that keeps its own position and reads with positional reads, which never move
+ * the channel's position. Any number of cursors, on any number of threads, can read the same channel at once without locking. Each read is a
+ * system call, so wrap the cursor in a <code>BufferedDataSource</code> to parse elements from it, as <code>SharedFile.newCursor()</code> does.
+ * <p>
+ * A read that fails, e.g. because the thread was interrupted, which closes the channel, throws a RuntimeException holding the IOException rather
+ * than returning -1, so that it can't be taken for the end of the file. Cursors of a <code>SharedFile</code> read on once it has opened the file
+ * again.
+ */
+public class PositionalDataSource implements DataSource
+{
+  /**
+   * The file the channel belongs to, to open it again when an interrupt closes it, or null
+   */
+  private final SharedFile file;
+  private FileChannel fc;
+  private final ByteBuffer single = ByteBuffer.allocate(1);
+  private long position;
+
+  /**
+   * @param fc Channel to read from, which is not closed by the cursor
+   * @param position Position to start reading at
+   */
+  public PositionalDataSource(final FileChannel fc, final long position)
+  {
+    this.file = null;
+    this.fc = fc;
+    this.position = position;
+  }
+
+  PositionalDataSource(final SharedFile file, final long position)
+  {
+    this.file = file;
+    this.fc = file.getChannel();
+    this.position = position;
+  }
+
+  @Override
+  public byte readByte()
+  {
+    single.clear();
+    if (read(single) <= 0)
+    {
+      return 0;
+    }
+    return single.get(0);
+  }
+
+  @Override
+  public int read(final ByteBuffer buff)
+  {
+    int total = 0;
+    while (buff.hasRemaining())
+    {
+      final int count;
+      try
+      {
+        count = fc.read(buff, position);
+      }
+      catch (final ClosedByInterruptException ex)
+      {
+        // This thread closed the channel for every cursor, so it is the one to open it again
+        reopen();
+        throw new RuntimeException("Interrupted while reading at " + position, ex);
+      }
+      catch (final ClosedChannelException ex)
+      {
+        // Closed by an interrupt on another thread, carry on once the file is open again
+        if (reopen())
+        {
+          continue;
+        }
+        throw new RuntimeException("Reading a closed file at " + position, ex);
+      }
+      catch (final IOException ex)
+      {
+        throw new RuntimeException("Reading failed at " + position, ex);
+      }
+      if (count <= 0)
+      {
+        break;
+      }
+      position += count;
+      total += count;
+    }
+    if (total == 0 && buff.hasRemaining())
+    {
+      return -1;
+    }
+    return total;
+  }
+
+  @Override
+  public long skip(final long offset)
+  {
+    final long length = length();
+    final long end = length < 0 ? position + offset : Math.min(position + offset, length);
+    final long skipped = end - position;
+    position = end;
+    return skipped;
+  }
+
+  @Override
+  public long length()
+  {
+    while (true)
+    {
+      try
+      {
+        return fc.size();
+      }
+      catch (final ClosedByInterruptException ex)
+      {
+        reopen();
+        return -1;
+      }
+      catch (final ClosedChannelException ex)
+      {
+        if (!reopen())
+        {
+          return -1;
+        }
+      }
+      catch (final IOException ex)
+      {
+        return -1;
+      }
+    }
+  }
+
+  @Override
+  public long getFilePointer()
+  {
+    return position;
+  }
+
+  @Override
+  public boolean isSeekable()
+  {
+    return true;
+  }
+
+  @Override
+  public long seek(final long pos)
+  {
+    if (pos < 0)
+    {
+      return -1;
+    }
+    position = pos;
+    return position;
+  }
+
+  /**
+   * @return true if the file has been opened again, false if the channel is closed for good
+   */
+  private boolean reopen()
+  {
+    if (file == null)
+    {
+      return false;
+    }
+    final FileChannel current = file.reopen(fc);
+    if (current == null)
+    {
+      return false;
+    }
+    fc = current;
+    return true;
+  }
+}
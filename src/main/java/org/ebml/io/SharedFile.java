@@ -0,0 +1,120 @@
+/**
+ * JEBML - Java library to read/write EBML/Matroska elements.
+ * Copyright (C) 2004 Jory Stone <jebml@jory.info>
+ * Based on Javatroska (C) 2002 John Cannon <spyder@matroska.org>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.ebml.io;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+/**
+ * A file opened once for reading by many threads. Instead of a single file pointer, it hands out cursors, each a <code>DataSource</code> with a
+ * position of its own, so every thread can read its own part of the file, e.g. its own clusters, in parallel over the one file handle. Closing the
+ * file ends all of its cursors.
+ * <p>
+ * File channels are interruptible: interrupting a thread while it reads closes the channel for every thread. The read on the interrupted thread
+ * then fails with a RuntimeException holding the ClosedByInterruptException, and the file is opened again for the other cursors, which carry on.
+ */
+public class SharedFile implements AutoCloseable
+{
+  private final String filename;
+  private RandomAccessFile file;
+  private volatile FileChannel fc;
+  private boolean closed = false;
+
+  public SharedFile(final String filename) throws FileNotFoundException
+  {
+    this.filename = filename;
+    file = new RandomAccessFile(filename, "r");
+    fc = file.getChannel();
+  }
+
+  /**
+   * @return a new buffered cursor at the start of the file
+   */
+  public DataSource newCursor()
+  {
+    return newCursor(0);
+  }
+
+  /**
+   * @param position Position in the file to start reading at
+   * @return a new cursor, buffered so that elements can be parsed from it efficiently. Cursors are cheap, but not thread safe: each thread needs
+   *         its own.
+   */
+  public DataSource newCursor(final long position)
+  {
+    return new BufferedDataSource(new PositionalDataSource(this, position));
+  }
+
+  /**
+   * @return a new cursor without a read buffer, for reading large blocks straight into the caller's buffers
+   */
+  public PositionalDataSource newUnbufferedCursor(final long position)
+  {
+    return new PositionalDataSource(this, position);
+  }
+
+  public long length() throws IOException
+  {
+    return fc.size();
+  }
+
+  @Override
+  public synchronized void close() throws IOException
+  {
+    closed = true;
+    fc.close();
+    file.close();
+  }
+
+  FileChannel getChannel()
+  {
+    return fc;
+  }
+
+  /**
+   * Opens the file again after its channel was closed by an interrupt, unless another cursor already has.
+   *
+   * @param broken The channel the cursor found closed
+   * @return the channel to read from now, or null if the file has been closed, or can't be opened again
+   */
+  synchronized FileChannel reopen(final FileChannel broken)
+  {
+    if (closed)
+    {
+      return null;
+    }
+    if (fc == broken)
+    {
+      try
+      {
+        file.close();
+        file = new RandomAccessFile(filename, "r");
+        fc = file.getChannel();
+      }
+      catch (final IOException ex)
+      {
+        return null;
+      }
+    }
+    return fc;
+  }
+}
@@ -0,0 +1,47 @@
+/**
+ * JEBML - Java library to read/write EBML/Matroska elements.
+ * Copyright (C) 2004 Jory Stone <jebml@jory.info>
+ * Based on Javatroska (C) 2002 John Cannon <spyder@matroska.org>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.ebml.io;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A <code>DataSource</code> that can hand out its bytes in place, as slices of memory it already holds, instead of copying them into a buffer of the
+ * caller's. Element data read from it is then kept as such a slice.
+ */
+public interface SliceDataSource extends DataSource
+{
+  /**
+   * Returns the next bytes as a read-only slice, without copying them, and advances past them. The slice stays valid after further reads from the
+   * source.
+   *
+   * @param count Number of bytes wanted
+   * @return Slice positioned at zero, holding at most <code>count</code> bytes. It is shorter if fewer are at hand in one piece, and empty at the end
+   *         of the source.
+   */
+  ByteBuffer readSlice(int count);
+
+  /**
+   * Moves back over bytes just read, if they are still held in memory. Cheaper than a seek, and works on sources that can't seek.
+   *
+   * @param count Number of bytes to move back over
+   * @return false, without moving, if the bytes are no longer at hand
+   */
+  boolean unread(int count);
+}
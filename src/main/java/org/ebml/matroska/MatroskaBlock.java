@@ -86,7 +86,7 @@ public class MatroskaBlock
       else if (laceFlag == 0x06)
       { // EBML Lacing
         LOG.trace("Reading ebml lace sizes");
-        sizes = readEBMLLaceSizes(index, laceCount);
+        sizes = readEBMLLaceSizes(laceCount);
       }
       else if (laceFlag == 0x04)
       { // Fixed Size Lacing
@@ -110,48 +110,33 @@ public class MatroskaBlock
     headerSize = data.position();
   }
 
-  private int[] readEBMLLaceSizes(int index, final short laceCount)
+  private int[] readEBMLLaceSizes(final short laceCount)
   {
     final int[] laceSizes = new int[laceCount + 1];
-    laceSizes[laceCount] = data.remaining();
-
-    // This uses the DataSource.getBytePosition() for finding the header size
-    // because of the trouble of finding the byte size of sized ebml coded integers
-    // long ByteStartPos = source.getFilePointer();
-    final int startIndex = index;
-
-    laceSizes[0] = (int) EBMLReader.readEBMLCode(data);
-    index += Element.codedSizeLength(laceSizes[0], 0);
-    laceSizes[laceCount] -= laceSizes[0];
+    final int start = data.position();
 
-    long firstEBMLSize = laceSizes[0];
-    long lastEBMLSize = 0;
-    for (int l = 0; l < laceCount - 1; l++)
+    // The first size is coded as is, the others as signed differences from the size before, which are negative for smaller frames
+    long laceSize = EBMLReader.readEBMLCode(data);
+    laceSizes[0] = (int) laceSize;
+    for (int l = 1; l < laceCount; l++)
     {
-      lastEBMLSize = EBMLReader.readSignedEBMLCode(data);
-      index += Element.codedSizeLength(lastEBMLSize, 0);
-
-      firstEBMLSize += lastEBMLSize;
-      laceSizes[l + 1] = (int) firstEBMLSize;
-
-      // Update the size of the last block
-      laceSizes[laceCount] -= laceSizes[l + 1];
+      laceSize += EBMLReader.readSignedEBMLCode(data);
+      laceSizes[l] = (int) laceSize;
     }
-    // long ByteEndPos = source.getFilePointer();
-
-    // HeaderSize = HeaderSize + (int)(ByteEndPos - ByteStartPos);
-    headerSize = headerSize + index - startIndex;
-    laceSizes[laceCount] -= headerSize;
 
+    // The lengths of the codes are taken from how far they moved the buffer, the last frame has what is left
+    headerSize += data.position() - start;
+    laceSizes[laceCount] = data.remaining();
+    for (int l = 0; l < laceCount; l++)
+    {
+      laceSizes[laceCount] -= laceSizes[l];
+    }
     return laceSizes;
   }
 
   private int[] readXiphLaceSizes(final int index, final short laceCount)
   {
     final int[] laceSizes = new int[laceCount + 1];
-    laceSizes[laceCount] = data.remaining();
-
-    // long ByteStartPos = source.getFilePointer();
 
     for (int l = 0; l < laceCount; l++)
     {
@@ -162,13 +147,14 @@ public class MatroskaBlock
         headerSize += 1;
         laceSizes[l] += laceSizeByte;
       }
-      // Update the size of the last block
-      laceSizes[laceCount] -= laceSizes[l];
     }
-    // long ByteEndPos = source.getFilePointer();
-
-    laceSizes[laceCount] -= headerSize;
 
+    // The last frame has what is left after the sizes
+    laceSizes[laceCount] = data.remaining();
+    for (int l = 0; l < laceCount; l++)
+    {
+      laceSizes[laceCount] -= laceSizes[l];
+    }
     return laceSizes;
   }
 
@@ -210,9 +196,14 @@ public class MatroskaBlock
     return frameData;
   }
 
+  /**
+   * @param clusterTimecode Timecode of the cluster holding the block, in timecode scale units
+   * @param timecodeScale Nanoseconds per timecode unit
+   * @return the timecode of the block, in timecode scale units like the frames written and read by this library
+   */
   public long getAdjustedBlockTimecode(final long clusterTimecode, final long timecodeScale)
   {
-    return clusterTimecode + (blockTimecode); // * timecodeScale);
+    return clusterTimecode + blockTimecode;
   }
 
   public int getTrackNo()
@@ -19,14 +19,15 @@
  */
 package org.ebml.matroska;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import org.ebml.EBMLWriter;
 import org.ebml.MasterElement;
 import org.ebml.UnsignedIntegerElement;
 import org.ebml.io.DataWriter;
@@ -41,40 +42,76 @@ class MatroskaCluster
   private static final Logger LOG = LoggerFactory.getLogger(MatroskaCluster.class);
   private final Queue<MatroskaFileFrame> frames = new ConcurrentLinkedQueue<>();
   private final Set<Integer> tracks = new HashSet<>();
-  private final List<Long> sliencedTracks = new ArrayList<>();
+  // Silenced from the caller's thread while an async writer may be flushing
+  private final List<Long> sliencedTracks = new CopyOnWriteArrayList<>();
 
   private long clusterTimecode = Long.MAX_VALUE;
-  private int sizeLimit = Integer.MAX_VALUE;
-  private int totalSize = 0;
-  private long durationLimit = Long.MAX_VALUE;
+  private long lastTimecode = Long.MIN_VALUE;
+  private long totalSize = 0;
+  private int frameCount = 0;
+  private MatroskaClusterPolicy policy;
+  /**
+   * Writes the open cluster in live mode
+   */
+  private EBMLWriter liveWriter = null;
 
   public MatroskaCluster()
   {
   }
 
-  void setLimitParameters(final long duration, final int size)
+  void setPolicy(final MatroskaClusterPolicy policy)
+  {
+    this.policy = policy;
+  }
+
+  MatroskaClusterPolicy getPolicy()
+  {
+    return policy;
+  }
+
+  /**
+   * Checks whether a frame should go in a new cluster. Call this before adding it.
+   *
+   * @param frame
+   * @return true if you should flush this cluster before adding the frame.
+   */
+  public boolean isNewCluster(final MatroskaFileFrame frame)
   {
-    this.sizeLimit = size;
-    this.durationLimit = duration;
+    if (frameCount == 0)
+    {
+      return false;
+    }
+    // Block timecodes are signed 16 bit offsets from the cluster timecode
+    final long first = Math.min(clusterTimecode, frame.getTimecode());
+    final long last = Math.max(lastTimecode, frame.getTimecode());
+    if (last - first > Short.MAX_VALUE)
+    {
+      LOG.debug("Starting a new cluster at {} to keep block timecodes in range", frame.getTimecode());
+      return true;
+    }
+    return policy != null && policy.isNewCluster(frame, clusterTimecode, totalSize, frameCount);
   }
 
   /**
    * Add a frame to the cluster
    * 
    * @param frame
-   * @return false if you should begin another cluster.
    */
-  public boolean addFrame(final MatroskaFileFrame frame)
+  public void addFrame(final MatroskaFileFrame frame)
   {
     // Is this the earliest timecode?
     if (frame.getTimecode() < clusterTimecode)
     {
       clusterTimecode = frame.getTimecode();
     }
+    if (frame.getTimecode() > lastTimecode)
+    {
+      lastTimecode = frame.getTimecode();
+    }
     frames.add(frame);
     totalSize += frame.getData().remaining();
+    frameCount++;
     tracks.add(frame.getTrackNo());
-    return ((frame.getTimecode() - clusterTimecode) < durationLimit) && (totalSize < sizeLimit);
   }
 
   public long flush(final DataWriter ioDW)
@@ -85,10 +122,12 @@ class MatroskaCluster
     }
     try
     {
-      final MasterElement clusterElem = MatroskaDocTypes.Cluster.getInstance();
+      // Stream the cluster out, blocks are written straight from the frame buffers
+      final EBMLWriter writer = new EBMLWriter(ioDW);
+      long len = writer.startMaster(MatroskaDocTypes.Cluster.getType());
       final UnsignedIntegerElement timecodeElem = MatroskaDocTypes.Timecode.getInstance();
       timecodeElem.setValue(clusterTimecode);
-      clusterElem.addChildElement(timecodeElem);
+      len += writer.writeElement(timecodeElem);
 
       if (!sliencedTracks.isEmpty())
       {
@@ -99,7 +138,7 @@ class MatroskaCluster
           silentTrackElem.setValue(silent);
           silentElem.addChildElement(silentTrackElem);
         }
-        clusterElem.addChildElement(silentElem);
+        len += writer.writeElement(silentElem);
       }
 
       MatroskaSimpleBlock block = null;
@@ -115,7 +154,7 @@ class MatroskaCluster
         {
           if (block != null)
           {
-            clusterElem.addChildElement(block.toElement());
+            len += block.writeElement(ioDW);
           }
           block = new MatroskaSimpleBlock();
         }
@@ -125,19 +164,100 @@ class MatroskaCluster
       }
       if (block != null)
       {
-        clusterElem.addChildElement(block.toElement());
+        len += block.writeElement(ioDW);
       }
-      return clusterElem.writeElement(ioDW);
+      writer.endMaster();
+      return len;
     }
     finally
     {
+      // The frame buffers are not needed any more, whether or not the cluster could be written
+      for (final MatroskaFileFrame frame: frames)
+      {
+        frame.release();
+      }
       frames.clear();
       tracks.clear();
       totalSize = 0;
+      frameCount = 0;
       clusterTimecode = Long.MAX_VALUE;
+      lastTimecode = Long.MIN_VALUE;
     }
   }
 
+  /**
+   * Writes a frame straight out as a SimpleBlock, for live streaming. The first frame of a cluster starts it, with its size left unknown on writers
+   * that can't seek, so no frame is ever held back. Use isNewCluster() and endLiveCluster() to decide where clusters end.
+   *
+   * @return the number of bytes written
+   */
+  public long writeLiveFrame(final MatroskaFileFrame frame, final DataWriter ioDW)
+  {
+    long len = 0;
+    if (frameCount == 0)
+    {
+      clusterTimecode = frame.getTimecode();
+      liveWriter = new EBMLWriter(ioDW);
+      len += liveWriter.startMaster(MatroskaDocTypes.Cluster.getType());
+      final UnsignedIntegerElement timecodeElem = MatroskaDocTypes.Timecode.getInstance();
+      timecodeElem.setValue(clusterTimecode);
+      len += liveWriter.writeElement(timecodeElem);
+      if (!sliencedTracks.isEmpty())
+      {
+        final MasterElement silentElem = MatroskaDocTypes.SilentTracks.getInstance();
+        for (final Long silent: sliencedTracks)
+        {
+          final UnsignedIntegerElement silentTrackElem = MatroskaDocTypes.SilentTrackNumber.getInstance();
+          silentTrackElem.setValue(silent);
+          silentElem.addChildElement(silentTrackElem);
+        }
+        len += liveWriter.writeElement(silentElem);
+      }
+    }
+    if (frame.getTimecode() > lastTimecode)
+    {
+      lastTimecode = frame.getTimecode();
+    }
+    totalSize += frame.getData().remaining();
+    frameCount++;
+    tracks.add(frame.getTrackNo());
+
+    final MatroskaSimpleBlock block = new MatroskaSimpleBlock();
+    block.addFrame(frame);
+    // Relative to the cluster start, which is the first frame here rather than the earliest one
+    block.setTimecode(frame.getTimecode() - clusterTimecode);
+    try
+    {
+      return len + block.writeElement(ioDW);
+    }
+    finally
+    {
+      frame.release();
+    }
+  }
+
+  /**
+   * Ends the cluster written by writeLiveFrame(), the next frame starts a new one.
+   */
+  public void endLiveCluster()
+  {
+    if (liveWriter != null)
+    {
+      liveWriter.endMaster();
+      liveWriter = null;
+    }
+    tracks.clear();
+    totalSize = 0;
+    frameCount = 0;
+    clusterTimecode = Long.MAX_VALUE;
+    lastTimecode = Long.MIN_VALUE;
+  }
+
+  public boolean isEmpty()
+  {
+    return frameCount == 0;
+  }
+
   public long getClusterTimecode()
   {
     return clusterTimecode;
@@ -0,0 +1,176 @@
+/**
+ * JEBML - Java library to read/write EBML/Matroska elements.
+ * Copyright (C) 2004 Jory Stone <jebml@jory.info>
+ * Based on Javatroska (C) 2002 John Cannon <spyder@matroska.org>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.ebml.matroska;
+
+/**
+ * Decides where the clusters of a file being written begin. Whatever the policy, a new cluster is also started when a block's timecode relative to
+ * its cluster would no longer fit in the 16 bits a block has for it.
+ */
+public interface MatroskaClusterPolicy
+{
+  /**
+   * Called for each frame, before it is added to a cluster that already has frames.
+   *
+   * @param frame The frame to be added
+   * @param clusterTimecode Timecode of the current cluster, the earliest of its frames
+   * @param clusterSize Bytes of frame data in the current cluster
+   * @param frameCount Number of frames in the current cluster
+   * @return true to write out the current cluster and start a new one with this frame
+   */
+  boolean isNewCluster(MatroskaFileFrame frame, long clusterTimecode, long clusterSize, int frameCount);
+
+  /**
+   * Starts a new cluster when the current one would last longer than a given time.
+   */
+  class MaxDuration implements MatroskaClusterPolicy
+  {
+    private final long maxDuration;
+
+    /**
+     * @param maxDuration Longest cluster, in timecode units
+     */
+    public MaxDuration(final long maxDuration)
+    {
+      this.maxDuration = maxDuration;
+    }
+
+    @Override
+    public boolean isNewCluster(final MatroskaFileFrame frame, final long clusterTimecode, final long clusterSize, final int frameCount)
+    {
+      return frame.getTimecode() - clusterTimecode > maxDuration;
+    }
+  }
+
+  /**
+   * Starts a new cluster when the frame data in the current one would grow past a given size.
+   */
+  class MaxSize implements MatroskaClusterPolicy
+  {
+    private final long maxSize;
+
+    /**
+     * @param maxSize Most bytes of frame data in a cluster. A single larger frame still gets a cluster of its own.
+     */
+    public MaxSize(final long maxSize)
+    {
+      this.maxSize = maxSize;
+    }
+
+    @Override
+    public boolean isNewCluster(final MatroskaFileFrame frame, final long clusterTimecode, final long clusterSize, final int frameCount)
+    {
+      return clusterSize + frame.getData().remaining() > maxSize;
+    }
+  }
+
+  /**
+   * Starts clusters on key frames, so that playback can start at any cluster without decoding an earlier one. Combine it with MaxDuration to bound
+   * the cluster length when key frames are far apart.
+   */
+  class KeyFrame implements MatroskaClusterPolicy
+  {
+    private final int trackNo;
+    private final long minDuration;
+
+    /**
+     * @param trackNo Track whose key frames start clusters, usually the video track, or 0 for any track
+     * @param minDuration Shortest cluster, in timecode units, so that tracks where every frame is a key frame don't make tiny clusters
+     */
+    public KeyFrame(final int trackNo, final long minDuration)
+    {
+      this.trackNo = trackNo;
+      this.minDuration = minDuration;
+    }
+
+    @Override
+    public boolean isNewCluster(final MatroskaFileFrame frame, final long clusterTimecode, final long clusterSize, final int frameCount)
+    {
+      return frame.isKeyFrame() && (trackNo == 0 || frame.getTrackNo() == trackNo) && frame.getTimecode() - clusterTimecode >= minDuration;
+    }
+  }
+
+  /**
+   * Sizes clusters by the bitrate of the stream: the cluster duration is chosen from a running estimate of the bitrate so that clusters hold about
+   * a given number of bytes, within duration limits. Low bitrate streams get long clusters, high bitrate ones short clusters.
+   */
+  class Bitrate implements MatroskaClusterPolicy
+  {
+    /**
+     * Weight of the current cluster's bitrate in the running estimate, which is updated on every frame
+     */
+    private static final double SMOOTHING = 0.25;
+
+    private final long targetSize;
+    private final long minDuration;
+    private final long maxDuration;
+    private double bytesPerTimecode = 0;
+
+    /**
+     * @param targetSize Bytes of frame data to aim for in each cluster
+     * @param minDuration Shortest cluster, in timecode units
+     * @param maxDuration Longest cluster, in timecode units
+     */
+    public Bitrate(final long targetSize, final long minDuration, final long maxDuration)
+    {
+      this.targetSize = targetSize;
+      this.minDuration = minDuration;
+      this.maxDuration = maxDuration;
+    }
+
+    @Override
+    public boolean isNewCluster(final MatroskaFileFrame frame, final long clusterTimecode, final long clusterSize, final int frameCount)
+    {
+      final long duration = frame.getTimecode() - clusterTimecode;
+      if (duration <= 0)
+      {
+        return false;
+      }
+      final double rate = (double) clusterSize / duration;
+      bytesPerTimecode = bytesPerTimecode == 0 ? rate : bytesPerTimecode + SMOOTHING * (rate - bytesPerTimecode);
+      final double targetDuration = bytesPerTimecode == 0 ? maxDuration : targetSize / bytesPerTimecode;
+      return duration > Math.max(minDuration, Math.min(maxDuration, targetDuration));
+    }
+  }
+
+  /**
+   * Starts a new cluster when any of several policies does.
+   */
+  class Any implements MatroskaClusterPolicy
+  {
+    private final MatroskaClusterPolicy[] policies;
+
+    public Any(final MatroskaClusterPolicy... policies)
+    {
+      this.policies = policies.clone();
+    }
+
+    @Override
+    public boolean isNewCluster(final MatroskaFileFrame frame, final long clusterTimecode, final long clusterSize, final int frameCount)
+    {
+      boolean newCluster = false;
+      // Ask every policy, since some of them learn from each frame
+      for (final MatroskaClusterPolicy policy: policies)
+      {
+        newCluster |= policy.isNewCluster(frame, clusterTimecode, clusterSize, frameCount);
+      }
+      return newCluster;
+    }
+  }
+}
@@ -0,0 +1,145 @@
+/**
+ * JEBML - Java library to read/write EBML/Matroska elements.
+ * Copyright (C) 2004 Jory Stone <jebml@jory.info>
+ * Based on Javatroska (C) 2002 John Cannon <spyder@matroska.org>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.ebml.matroska;
+
+import java.util.Arrays;
+
+/**
+ * Index of cue points, kept as parallel primitive arrays sorted by time. Each entry maps a timecode on a track to the position of the cluster that
+ * holds it, relative to the start of the segment data. Used internally to seek in files.
+ */
+class MatroskaCueIndex
+{
+  private static final int INITIAL_CAPACITY = 64;
+
+  private long[] times = new long[INITIAL_CAPACITY];
+  private long[] positions = new long[INITIAL_CAPACITY];
+  private int[] tracks = new int[INITIAL_CAPACITY];
+  private int count = 0;
+  private boolean sorted = true;
+
+  /**
+   * @param time Timecode of the cue point, in timecode scale units
+   * @param track Track number the cue point is for, or 0 for all tracks
+   * @param position Position of the cluster relative to the start of the segment data
+   */
+  public void add(final long time, final int track, final long position)
+  {
+    if (count == times.length)
+    {
+      final int capacity = count * 2;
+      times = Arrays.copyOf(times, capacity);
+      positions = Arrays.copyOf(positions, capacity);
+      tracks = Arrays.copyOf(tracks, capacity);
+    }
+    if (count > 0 && time < times[count - 1])
+    {
+      sorted = false;
+    }
+    times[count] = time;
+    tracks[count] = track;
+    positions[count] = position;
+    count++;
+  }
+
+  public int size()
+  {
+    return count;
+  }
+
+  public long getTime(final int index)
+  {
+    return times[index];
+  }
+
+  public long getPosition(final int index)
+  {
+    return positions[index];
+  }
+
+  public int getTrack(final int index)
+  {
+    return tracks[index];
+  }
+
+  /**
+   * Finds the last cue point at or before a timecode.
+   *
+   * @param timecode Timecode to look for, in timecode scale units
+   * @param trackNo Only consider cue points for this track, or 0 for any track
+   * @return index of the cue point, or -1 if there is none before the timecode
+   */
+  public int find(final long timecode, final int trackNo)
+  {
+    sort();
+    // Find the first entry after the timecode
+    int low = 0;
+    int high = count;
+    while (low < high)
+    {
+      final int mid = (low + high) >>> 1;
+      if (times[mid] <= timecode)
+      {
+        low = mid + 1;
+      }
+      else
+      {
+        high = mid;
+      }
+    }
+    for (int i = low - 1; i >= 0; i--)
+    {
+      if (trackNo == 0 || tracks[i] == trackNo || tracks[i] == 0)
+      {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Cues are normally written in order, so an insertion sort is close to linear here.
+   */
+  private void sort()
+  {
+    if (sorted)
+    {
+      return;
+    }
+    for (int i = 1; i < count; i++)
+    {
+      final long time = times[i];
+      final long position = positions[i];
+      final int track = tracks[i];
+      int j = i - 1;
+      while (j >= 0 && times[j] > time)
+      {
+        times[j + 1] = times[j];
+        positions[j + 1] = positions[j];
+        tracks[j + 1] = tracks[j];
+        j--;
+      }
+      times[j + 1] = time;
+      positions[j + 1] = position;
+      tracks[j + 1] = track;
+    }
+    sorted = true;
+  }
+}
@@ -19,11 +19,18 @@
  */
 package org.ebml.matroska;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.ebml.DateElement;
 import org.ebml.EBMLReader;
@@ -33,7 +40,10 @@ import org.ebml.MasterElement;
 import org.ebml.SignedIntegerElement;
 import org.ebml.StringElement;
 import org.ebml.UnsignedIntegerElement;
+import org.ebml.io.BufferPool;
 import org.ebml.io.DataSource;
+import org.ebml.io.PooledBuffer;
+import org.ebml.io.SliceDataSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,9 +51,14 @@ public class MatroskaFile
 {
   /**
    * Number of Clusters to search before assuming that a track has ended
+   *
+   * @deprecated Not used any more: getNextFrame(int) reads on until the track has a frame or the segment ends, as frames of other tracks are kept
+   *             in their queues meanwhile.
    */
+  @Deprecated
   public static final int CLUSTER_TRACK_SEARCH_COUNT = 4;
   protected static final Logger LOG = LoggerFactory.getLogger(MatroskaFile.class);
+  private static final long NANOS_PER_MILLISECOND = 1000000;
 
   static
   {
@@ -62,8 +77,38 @@ public class MatroskaFile
   private double duration;
   private final ArrayList<MatroskaFileTrack> trackList = new ArrayList<>();
   private final ArrayList<MatroskaFileTagEntry> tagList = new ArrayList<>();
-  private final Queue<MatroskaFileFrame> frameQueue = new ConcurrentLinkedQueue<>();
+  /**
+   * Demuxed frames waiting to be read, one queue per track
+   */
+  private final ConcurrentMap<Integer, BlockingQueue<QueuedFrame>> trackQueues = new ConcurrentHashMap<>();
+  private final AtomicInteger demuxWaiters = new AtomicInteger();
+  private int trackQueueCapacity = Integer.MAX_VALUE;
+  private long demuxSequence = 0;
   private boolean scanFirstCluster = true;
+  private int readAheadClusters = 1;
+  /**
+   * Position in the file where the Segment data starts, all positions in the SeekHead and Cues are relative to this
+   */
+  private long segmentDataPosition = -1;
+  private long firstClusterPosition = -1;
+  private long cuesPosition = -1;
+  private MatroskaCueIndex cueIndex = null;
+  /**
+   * Tracks to demux, or null for all of them
+   */
+  private Set<Integer> trackFilter = null;
+  /**
+   * Scratch space for the track number at the start of a block, only used while holding the level0 lock
+   */
+  private final byte[] blockHead = new byte[8];
+  /**
+   * Pool to read block data into, or null to allocate a buffer for each block
+   */
+  private BufferPool bufferPool = null;
+  /**
+   * Pooled buffer holding the block being demuxed, only used while holding the level0 lock
+   */
+  private PooledBuffer blockBuffer = null;
 
   /**
    * Primary Constructor for Matroska File class.
@@ -121,6 +166,7 @@ public class MatroskaFile
     level0 = reader.readNextElement();
     if (level0.isType(MatroskaDocTypes.Segment.getType()))
     {
+      segmentDataPosition = ioDS.getFilePointer();
       level1 = ((MasterElement) level0).readNextChild(reader);
       LOG.debug("Got segment element");
       while (level1 != null)
@@ -136,8 +182,17 @@ public class MatroskaFile
           parseTracks(level1, level2);
 
         }
+        else if (level1.isType(MatroskaDocTypes.SeekHead.getType()))
+        {
+          parseSeekHead(level1);
+        }
+        else if (level1.isType(MatroskaDocTypes.Cues.getType()))
+        {
+          parseCues(level1);
+        }
         else if (level1.isType(MatroskaDocTypes.Cluster.getType()))
         {
+          firstClusterPosition = ioDS.getFilePointer() - (level1.getTotalSize() - level1.getSize());
           if (scanFirstCluster)
           {
             parseNextCluster(level1);
@@ -170,76 +225,46 @@ public class MatroskaFile
    */
   public MatroskaFileFrame getNextFrame()
   {
-    if (frameQueue.isEmpty())
+    while (true)
     {
-      fillFrameQueue();
-    }
-
-    // If FrameQueue is still empty, must be the end of the file
-    if (frameQueue.isEmpty())
-    {
-      return null;
+      final MatroskaFileFrame frame = pollEarliestFrame();
+      // If the queues are still empty after filling them, must be the end of the file
+      if (frame != null || !fillFrameQueue(null))
+      {
+        return frame == null ? pollEarliestFrame() : frame;
+      }
     }
-    return frameQueue.remove();
   }
 
   /**
-   * Get the Next MatroskaFileFrame, limited by TrackNo
+   * Get the Next MatroskaFileFrame, limited by TrackNo. Each track has its own queue, so several threads can each read their own track. Clusters
+   * are demuxed until one holds a frame of the track, however sparse it is, and the frames of other tracks found meanwhile wait in their queues.
    *
    * @param trackNo The track number to only get MatroskaFileFrame(s) from
    * @return The next MatroskaFileFrame in the queue, or null if there are no more frames for the TrackNo track
    */
   public MatroskaFileFrame getNextFrame(final int trackNo)
   {
-    if (frameQueue.isEmpty())
-    {
-      fillFrameQueue();
-    }
-
-    // If FrameQueue is still empty, must be the end of the file
-    if (frameQueue.isEmpty())
+    final BlockingQueue<QueuedFrame> queue = getTrackQueue(trackNo);
+    while (true)
     {
-      return null;
-    }
-    int tryCount = 0;
-    MatroskaFileFrame frame = null;
-    try
-    {
-      final Iterator<MatroskaFileFrame> iter = frameQueue.iterator();
-      while (frame == null)
+      final QueuedFrame queued = queue.poll();
+      if (queued != null)
       {
-        if (iter.hasNext())
-        {
-          frame = iter.next();
-          if (frame.getTrackNo() == trackNo)
-          {
-            synchronized (frameQueue)
-            {
-              iter.remove();
-            }
-            return frame;
-          }
-          frame = null;
-        }
-        else
+        frameConsumed();
+        return queued.frame;
+      }
+      if (!fillFrameQueue(queue))
+      {
+        final QueuedFrame last = queue.poll();
+        if (last == null)
         {
-          fillFrameQueue();
-          if (++tryCount > CLUSTER_TRACK_SEARCH_COUNT)
-          {
-            // If we have not found any frames belonging to a track in 4 clusters
-            // there is a good chance that the track is over
-            return null;
-          }
+          return null;
         }
+        frameConsumed();
+        return last.frame;
       }
     }
-    catch (final RuntimeException ex)
-    {
-      ex.printStackTrace();
-      return null;
-    }
-
-    return frame;
   }
 
   public boolean isSeekable()
@@ -247,6 +272,18 @@ public class MatroskaFile
     return this.ioDS.isSeekable();
   }
 
+  /**
+   * Converts a timecode from timecode scale units, as stored in the file, to milliseconds.
+   */
+  static long toMilliseconds(final long timecode, final long timecodeScale)
+  {
+    if (timecodeScale == NANOS_PER_MILLISECOND)
+    {
+      return timecode;
+    }
+    return timecode * timecodeScale / NANOS_PER_MILLISECOND;
+  }
+
   /**
    * Seek to the requested timecode, rescaning clusters and/or discarding frames until we reach the nearest possible timecode, rounded down.
    *
@@ -302,15 +339,139 @@ public class MatroskaFile
    * We are requested to seek to 333ms, so we discard frames until we hit an timecode larger than the requested. We would seek to Frame 7 at 300ms.
    * </p>
    *
+   * <p>
+   * The Cues of the file are used to find the cluster to continue from, and are loaded the first time this is called. If the file has no Cues, the
+   * clusters are scanned for their timecodes instead. Reading resumes at the start of the cluster, which normally begins with a keyframe.
+   * </p>
+   *
    * @param timecode Timecode to seek to in millseconds
-   * @return Actual timecode we seeked to
+   * @return Actual timecode we seeked to in milliseconds, or -1 if the file can not be seeked
    */
   public long seek(final long timecode)
   {
-    return 0;
+    return seek(timecode, 0);
+  }
+
+  /**
+   * Seek to the cluster holding the requested timecode, using only the cue points for one track.
+   *
+   * @param timecode Timecode to seek to in millseconds
+   * @param trackNo The track number to seek on, or 0 for any track
+   * @return Actual timecode we seeked to in milliseconds, or -1 if the file can not be seeked
+   * @see #seek(long)
+   */
+  public long seek(final long timecode, final int trackNo)
+  {
+    if (level0 == null)
+    {
+      throw new java.lang.IllegalStateException("Call readFile() before seeking");
+    }
+    if (!ioDS.isSeekable() || firstClusterPosition < 0)
+    {
+      return -1;
+    }
+
+    synchronized (level0)
+    {
+      if (cueIndex == null || cueIndex.size() == 0)
+      {
+        loadCues();
+      }
+
+      long clusterTimecode = 0;
+      long clusterPosition = firstClusterPosition;
+      // The index is in timecode scale units, like the Cues
+      final int cue = cueIndex.find(timecode * NANOS_PER_MILLISECOND / timecodeScale, trackNo);
+      if (cue >= 0)
+      {
+        clusterTimecode = toMilliseconds(cueIndex.getTime(cue), timecodeScale);
+        clusterPosition = segmentDataPosition + cueIndex.getPosition(cue);
+      }
+      LOG.debug("Seeking to cluster @ {} with timecode {}", clusterPosition, clusterTimecode);
+
+      ioDS.seek(clusterPosition);
+      ((MasterElement) level0).setUsedSize(clusterPosition - segmentDataPosition);
+      for (final BlockingQueue<QueuedFrame> queue: trackQueues.values())
+      {
+        QueuedFrame queued = queue.poll();
+        while (queued != null)
+        {
+          queued.frame.release();
+          queued = queue.poll();
+        }
+      }
+      // Wake up anyone waiting for the queues to drain
+      level0.notifyAll();
+      return clusterTimecode;
+    }
+  }
+
+  private void loadCues()
+  {
+    if (cueIndex == null)
+    {
+      cueIndex = new MatroskaCueIndex();
+    }
+    if (cuesPosition >= 0)
+    {
+      ioDS.seek(segmentDataPosition + cuesPosition);
+      final Element level1 = reader.readNextElement();
+      if (level1 != null && level1.isType(MatroskaDocTypes.Cues.getType()))
+      {
+        parseCues(level1);
+      }
+      else
+      {
+        LOG.warn("SeekHead points to a missing Cues element @ {}", cuesPosition);
+      }
+    }
+    if (cueIndex.size() == 0)
+    {
+      LOG.debug("No cues found, scanning clusters");
+      scanClusters();
+    }
+  }
+
+  /**
+   * Builds the cue index from the timecodes of all clusters, for files without Cues.
+   */
+  private void scanClusters()
+  {
+    final MasterElement segment = (MasterElement) level0;
+    ioDS.seek(firstClusterPosition);
+    segment.setUsedSize(firstClusterPosition - segmentDataPosition);
+    // Counted by the segment rather than taken from the source, which is past the header of the element that ended a cluster of unknown size
+    long position = segment.getUsedSize();
+    Element level1 = segment.readNextChild(reader);
+    while (level1 != null)
+    {
+      if (level1.isType(MatroskaDocTypes.Cluster.getType()))
+      {
+        Element level2 = ((MasterElement) level1).readNextChild(reader);
+        while (level2 != null && !level2.isType(MatroskaDocTypes.Timecode.getType()))
+        {
+          level2.skipData(ioDS);
+          level2 = ((MasterElement) level1).readNextChild(reader);
+        }
+        if (level2 != null)
+        {
+          level2.readData(ioDS);
+          cueIndex.add(((UnsignedIntegerElement) level2).getValue(), 0, position);
+        }
+      }
+      level1.skipData(ioDS);
+      position = segment.getUsedSize();
+      level1 = segment.readNextChild(reader);
+    }
   }
 
-  private void fillFrameQueue()
+  /**
+   * Demuxes the next clusters into the track queues.
+   *
+   * @param wanted The queue the caller is waiting on, or null for any queue. Nothing is read if it already has frames.
+   * @return false if the end of the segment has been reached
+   */
+  private boolean fillFrameQueue(final BlockingQueue<QueuedFrame> wanted)
   {
     if (level0 == null)
     {
@@ -319,18 +480,161 @@ public class MatroskaFile
 
     synchronized (level0)
     {
-      Element level1 = ((MasterElement) level0).readNextChild(reader);
-      while (level1 != null)
+      // Another reader may have filled the queue while we waited for the lock
+      if (wanted == null ? hasQueuedFrames() : !wanted.isEmpty())
       {
+        return true;
+      }
+      // Only demux as far ahead as configured, so memory use doesn't depend on the file size
+      int clustersRead = 0;
+      while (clustersRead < readAheadClusters)
+      {
+        if (!awaitQueueSpace(wanted))
+        {
+          // Frames arrived for the caller while waiting, so it can go on without demuxing more
+          return true;
+        }
+        final Element level1 = ((MasterElement) level0).readNextChild(reader);
+        if (level1 == null)
+        {
+          return clustersRead > 0;
+        }
         if (level1.isType(MatroskaDocTypes.Cluster.getType()))
         {
           parseNextCluster(level1);
+          clustersRead++;
         }
 
         level1.skipData(ioDS);
-        level1 = ((MasterElement) level0).readNextChild(reader);
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Blocks while any track queue is full, until its reader catches up. Must be called holding the level0 lock.
+   *
+   * @param wanted The queue the caller is waiting on, or null for any queue
+   * @return false if the caller has frames to read and should stop demuxing instead
+   */
+  private boolean awaitQueueSpace(final BlockingQueue<QueuedFrame> wanted)
+  {
+    demuxWaiters.incrementAndGet();
+    try
+    {
+      while (isAnyQueueFull())
+      {
+        // A full queue can only drain through its own reader, which must not wait on a reader of another track
+        if (wanted == null ? hasQueuedFrames() : !wanted.isEmpty())
+        {
+          return false;
+        }
+        level0.wait();
+      }
+      return true;
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread().interrupt();
+      return true;
+    }
+    finally
+    {
+      demuxWaiters.decrementAndGet();
+    }
+  }
+
+  private boolean isAnyQueueFull()
+  {
+    if (trackQueueCapacity == Integer.MAX_VALUE)
+    {
+      return false;
+    }
+    for (final BlockingQueue<QueuedFrame> queue: trackQueues.values())
+    {
+      if (queue.size() >= trackQueueCapacity)
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean hasQueuedFrames()
+  {
+    for (final BlockingQueue<QueuedFrame> queue: trackQueues.values())
+    {
+      if (!queue.isEmpty())
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void frameConsumed()
+  {
+    if (demuxWaiters.get() > 0)
+    {
+      synchronized (level0)
+      {
+        level0.notifyAll();
+      }
+    }
+  }
+
+  private BlockingQueue<QueuedFrame> getTrackQueue(final int trackNo)
+  {
+    BlockingQueue<QueuedFrame> queue = trackQueues.get(trackNo);
+    if (queue == null)
+    {
+      final BlockingQueue<QueuedFrame> newQueue = new LinkedBlockingQueue<>();
+      queue = trackQueues.putIfAbsent(trackNo, newQueue);
+      if (queue == null)
+      {
+        queue = newQueue;
+      }
+    }
+    return queue;
+  }
+
+  /**
+   * Takes the frame that was demuxed first from all the track queues.
+   */
+  private MatroskaFileFrame pollEarliestFrame()
+  {
+    BlockingQueue<QueuedFrame> earliest = null;
+    long earliestSequence = Long.MAX_VALUE;
+    for (final BlockingQueue<QueuedFrame> queue: trackQueues.values())
+    {
+      final QueuedFrame head = queue.peek();
+      if (head != null && head.sequence < earliestSequence)
+      {
+        earliest = queue;
+        earliestSequence = head.sequence;
       }
     }
+    if (earliest == null)
+    {
+      return null;
+    }
+    final QueuedFrame queued = earliest.poll();
+    if (queued == null)
+    {
+      // Taken by a track reader in the meantime
+      return pollEarliestFrame();
+    }
+    frameConsumed();
+    return queued.frame;
+  }
+
+  private void queueFrame(final MatroskaFileFrame frame)
+  {
+    if (blockBuffer != null)
+    {
+      frame.setPooledBuffer(blockBuffer);
+    }
+    getTrackQueue(frame.getTrackNo()).add(new QueuedFrame(demuxSequence++, frame));
   }
 
   private void parseNextCluster(final Element level1)
@@ -350,7 +654,11 @@ public class MatroskaFile
       }
       else if (level2.isType(MatroskaDocTypes.SimpleBlock.getType()))
       {
-        level2.readData(ioDS);
+        if (!readBlockData(level2))
+        {
+          level2 = ((MasterElement) level1).readNextChild(reader);
+          continue;
+        }
         MatroskaBlock block = null;
         final long blockDuration = 0;
         block = new MatroskaBlock(level2.getData());
@@ -362,17 +670,14 @@ public class MatroskaFile
         frame.setDuration(blockDuration);
         frame.setData(block.getFrame(0));
         frame.setKeyFrame(block.isKeyFrame());
-        synchronized (frameQueue)
-        {
-          frameQueue.add(new MatroskaFileFrame(frame));
-        }
+        queueFrame(new MatroskaFileFrame(frame));
 
         if (block.getFrameCount() > 1)
         {
           for (int f = 1; f < block.getFrameCount(); f++)
           {
             frame.setData(block.getFrame(f));
-            frameQueue.add(new MatroskaFileFrame(frame));
+            queueFrame(new MatroskaFileFrame(frame));
           }
         }
         level2.skipData(ioDS);
@@ -384,11 +689,17 @@ public class MatroskaFile
         long blockReference = 0;
         level3 = ((MasterElement) level2).readNextChild(reader);
         MatroskaBlock block = null;
+        boolean skipped = false;
         while (level3 != null)
         {
           if (level3.isType(MatroskaDocTypes.Block.getType()))
           {
-            level3.readData(ioDS);
+            if (!readBlockData(level3))
+            {
+              // Nothing else in the group is needed, the group itself is skipped below
+              skipped = true;
+              break;
+            }
             block = new MatroskaBlock(level3.getData());
             block.parseBlock();
 
@@ -409,6 +720,12 @@ public class MatroskaFile
           level3 = ((MasterElement) level2).readNextChild(reader);
         }
 
+        if (skipped)
+        {
+          level2.skipData(ioDS);
+          level2 = ((MasterElement) level1).readNextChild(reader);
+          continue;
+        }
         if (block == null)
         {
           throw new java.lang.NullPointerException("BlockGroup element with no child Block!");
@@ -420,7 +737,7 @@ public class MatroskaFile
         frame.setDuration(blockDuration);
         frame.addReferences(blockReference);
         frame.setData(block.getFrame(0));
-        frameQueue.add(new MatroskaFileFrame(frame));
+        queueFrame(new MatroskaFileFrame(frame));
 
         if (block.getFrameCount() > 1)
         {
@@ -431,7 +748,7 @@ public class MatroskaFile
              * if (badMP3Headers()) { throw new RuntimeException("Bad Data!"); }
              */
 
-            frameQueue.add(new MatroskaFileFrame(frame));
+            queueFrame(new MatroskaFileFrame(frame));
             /*
              * if (badMP3Headers()) { throw new RuntimeException("Bad Data!"); }
              */
@@ -439,19 +756,96 @@ public class MatroskaFile
         }
       }
 
+      if (blockBuffer != null)
+      {
+        // The queued frames hold their own references
+        blockBuffer.release();
+        blockBuffer = null;
+      }
       level2.skipData(ioDS);
       level2 = ((MasterElement) level1).readNextChild(reader);
     }
   }
 
+  /**
+   * Reads the data of a SimpleBlock or Block. With a track filter set, only the track number at the start of the block is read first, and the rest
+   * of the block is skipped if the track is not selected.
+   *
+   * @return false if the block was skipped
+   */
+  private boolean readBlockData(final Element block)
+  {
+    if (trackFilter == null)
+    {
+      readBlock(block, null);
+      return true;
+    }
+    blockHead[0] = ioDS.readByte();
+    final int length = EBMLReader.readEBMLCodeSize(blockHead[0]);
+    if (length == 0)
+    {
+      LOG.warn("Skipping block with an invalid track number");
+      block.skipData(ioDS, 1);
+      return false;
+    }
+    long trackNo = blockHead[0] & (0xFF >>> length);
+    for (int i = 1; i < length; i++)
+    {
+      blockHead[i] = ioDS.readByte();
+      trackNo = (trackNo << 8) | (blockHead[i] & 0xFF);
+    }
+    if (trackNo > Integer.MAX_VALUE || !trackFilter.contains((int) trackNo))
+    {
+      block.skipData(ioDS, length);
+      return false;
+    }
+    if (ioDS instanceof SliceDataSource && bufferPool == null && ((SliceDataSource) ioDS).unread(length))
+    {
+      // The head is still in memory, so the data can be used in place
+      block.readData(ioDS);
+    }
+    else
+    {
+      readBlock(block, ByteBuffer.wrap(blockHead, 0, length));
+    }
+    return true;
+  }
+
+  /**
+   * Reads the data of a block, into a buffer from the pool if there is one.
+   *
+   * @param head The bytes already read from the start of the block, or null
+   */
+  private void readBlock(final Element block, final ByteBuffer head)
+  {
+    if (bufferPool == null)
+    {
+      if (head == null)
+      {
+        block.readData(ioDS);
+      }
+      else
+      {
+        block.readData(ioDS, head);
+      }
+      return;
+    }
+    blockBuffer = bufferPool.acquire((int) block.getSize());
+    final ByteBuffer data = blockBuffer.getBuffer();
+    if (head != null)
+    {
+      data.put(head);
+    }
+    block.readDataInto(ioDS, data);
+  }
+
   protected boolean badMP3Headers()
   {
-    final Iterator<MatroskaFileFrame> iter = frameQueue.iterator();
+    final Iterator<QueuedFrame> iter = getTrackQueue(2).iterator();
     while (iter.hasNext())
     {
-      final MatroskaFileFrame frame = iter.next();
-      if (frame.getTrackNo() == 2
-          && frame.getData().get(3) != 0x54)
+      final MatroskaFileFrame frame = iter.next().frame;
+      if (frame.getData().get(3) != 0x54)
       {
         throw new RuntimeException("Bad MP3 Header! Index: " + iter);
       }
@@ -459,6 +853,96 @@ public class MatroskaFile
     return false;
   }
 
+  private void parseSeekHead(final Element level1)
+  {
+    Element level2 = ((MasterElement) level1).readNextChild(reader);
+    while (level2 != null)
+    {
+      if (level2.isType(MatroskaDocTypes.Seek.getType()))
+      {
+        ByteBuffer seekId = null;
+        long seekPosition = -1;
+        Element level3 = ((MasterElement) level2).readNextChild(reader);
+        while (level3 != null)
+        {
+          if (level3.isType(MatroskaDocTypes.SeekID.getType()))
+          {
+            level3.readData(ioDS);
+            seekId = level3.getData();
+          }
+          else if (level3.isType(MatroskaDocTypes.SeekPosition.getType()))
+          {
+            level3.readData(ioDS);
+            seekPosition = ((UnsignedIntegerElement) level3).getValue();
+          }
+          level3.skipData(ioDS);
+          level3 = ((MasterElement) level2).readNextChild(reader);
+        }
+        if (MatroskaDocTypes.Cues.getType().equals(seekId))
+        {
+          cuesPosition = seekPosition;
+        }
+      }
+      level2.skipData(ioDS);
+      level2 = ((MasterElement) level1).readNextChild(reader);
+    }
+  }
+
+  private void parseCues(final Element level1)
+  {
+    if (cueIndex == null)
+    {
+      cueIndex = new MatroskaCueIndex();
+    }
+    Element level2 = ((MasterElement) level1).readNextChild(reader);
+    while (level2 != null)
+    {
+      if (level2.isType(MatroskaDocTypes.CuePoint.getType()))
+      {
+        parseCuePoint(level2);
+      }
+      level2.skipData(ioDS);
+      level2 = ((MasterElement) level1).readNextChild(reader);
+    }
+  }
+
+  private void parseCuePoint(final Element level2)
+  {
+    long cueTime = 0;
+    Element level3 = ((MasterElement) level2).readNextChild(reader);
+    while (level3 != null)
+    {
+      if (level3.isType(MatroskaDocTypes.CueTime.getType()))
+      {
+        level3.readData(ioDS);
+        cueTime = ((UnsignedIntegerElement) level3).getValue();
+      }
+      else if (level3.isType(MatroskaDocTypes.CueTrackPositions.getType()))
+      {
+        // CueTime comes first in every CuePoint
+        int track = 0;
+        Element level4 = ((MasterElement) level3).readNextChild(reader);
+        while (level4 != null)
+        {
+          if (level4.isType(MatroskaDocTypes.CueTrack.getType()))
+          {
+            level4.readData(ioDS);
+            track = (int) ((UnsignedIntegerElement) level4).getValue();
+          }
+          else if (level4.isType(MatroskaDocTypes.CueClusterPosition.getType()))
+          {
+            level4.readData(ioDS);
+            cueIndex.add(cueTime, track, ((UnsignedIntegerElement) level4).getValue());
+          }
+          level4.skipData(ioDS);
+          level4 = ((MasterElement) level3).readNextChild(reader);
+        }
+      }
+      level3.skipData(ioDS);
+      level3 = ((MasterElement) level2).readNextChild(reader);
+    }
+  }
+
   private void parseSegmentInfo(final Element level1, Element level2)
   {
     level2 = ((MasterElement) level1).readNextChild(reader);
@@ -700,8 +1184,8 @@ public class MatroskaFile
   }
 
   /**
-   * Get the timecode scale for this MatroskaFile. In Matroska the timecodes are stored scaled by this value. However any MatroskaFileFrame you get
-   * through the methods of this class will already have the timecodes correctly scaled to millseconds.
+   * Get the timecode scale for this MatroskaFile. In Matroska the timecodes are stored scaled by this value, and the MatroskaFileFrames you get
+   * through the methods of this class carry them unchanged, in timecode scale units. Only {@link #seek(long)} works in milliseconds.
    *
    * @return TimecodeScale
    */
@@ -746,4 +1230,107 @@ public class MatroskaFile
   {
     return scanFirstCluster;
   }
+
+  /**
+   * Sets how many clusters are demuxed each time the frame queue runs empty. Defaults to 1. Frames are only read from the file as they are
+   * requested, so at most this many clusters are held in memory at a time.
+   *
+   * @param readAheadClusters Number of clusters to read ahead, at least 1
+   */
+  public void setReadAheadClusters(final int readAheadClusters)
+  {
+    if (readAheadClusters < 1)
+    {
+      throw new IllegalArgumentException("Must read ahead at least one cluster");
+    }
+    this.readAheadClusters = readAheadClusters;
+  }
+
+  /**
+   * Gets how many clusters are demuxed each time the frame queue runs empty.
+   */
+  public int getReadAheadClusters()
+  {
+    return readAheadClusters;
+  }
+
+  /**
+   * Sets how many frames each track queue may hold before demuxing waits for them to be read. Unlimited by default. Queues may go over the limit by
+   * up to a cluster's worth of frames. With a limit set, every track in the file needs a reader, or demuxing blocks once its queue fills up.
+   *
+   * @param trackQueueCapacity Maximum number of queued frames per track
+   */
+  public void setTrackQueueCapacity(final int trackQueueCapacity)
+  {
+    if (trackQueueCapacity < 1)
+    {
+      throw new IllegalArgumentException("Track queues must hold at least one frame");
+    }
+    this.trackQueueCapacity = trackQueueCapacity;
+  }
+
+  public int getTrackQueueCapacity()
+  {
+    return trackQueueCapacity;
+  }
+
+  /**
+   * Only demux the given tracks. Blocks of other tracks are skipped without reading their data, which saves most of the I/O when only a small track
+   * such as audio is needed. Set this before reading any frames.
+   *
+   * @param trackNos The tracks to read, or none to read all tracks again
+   */
+  public void setTrackFilter(final int... trackNos)
+  {
+    if (trackNos == null || trackNos.length == 0)
+    {
+      trackFilter = null;
+      return;
+    }
+    final Set<Integer> tracks = new HashSet<>();
+    for (final int trackNo: trackNos)
+    {
+      tracks.add(trackNo);
+    }
+    trackFilter = tracks;
+  }
+
+  /**
+   * @return The tracks being demuxed, or null if all of them are
+   */
+  public Set<Integer> getTrackFilter()
+  {
+    return trackFilter == null ? null : Collections.unmodifiableSet(trackFilter);
+  }
+
+  /**
+   * Reads block data into buffers from a pool instead of allocating new ones, which saves a lot of garbage when demuxing at a high frame rate. The
+   * frames returned must then be released once done with. Set this before reading any frames.
+   *
+   * @param bufferPool Pool to take buffers from, or null to allocate them
+   */
+  public void setBufferPool(final BufferPool bufferPool)
+  {
+    this.bufferPool = bufferPool;
+  }
+
+  public BufferPool getBufferPool()
+  {
+    return bufferPool;
+  }
+
+  /**
+   * A frame waiting in a track queue, along with the order it was demuxed in.
+   */
+  private static final class QueuedFrame
+  {
+    private final long sequence;
+    private final MatroskaFileFrame frame;
+
+    QueuedFrame(final long sequence, final MatroskaFileFrame frame)
+    {
+      this.sequence = sequence;
+      this.frame = frame;
+    }
+  }
 }
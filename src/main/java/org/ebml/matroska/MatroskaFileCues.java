@@ -1,20 +1,40 @@
 package org.ebml.matroska;
 
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 
-import org.ebml.Element;
+import org.ebml.EBMLWriter;
 import org.ebml.MasterElement;
 import org.ebml.UnsignedIntegerElement;
 import org.ebml.io.DataWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Cue points of a file being written. They are kept as parallel primitive arrays, the tracks of each cue as a bitmask, so a long recording only
+ * costs a few bytes per cluster until the Cues element is streamed out by write().
+ */
 public class MatroskaFileCues
 {
   private static final Logger LOG = LoggerFactory.getLogger(MatroskaFileCues.class);
-  private MasterElement cues = MatroskaDocTypes.Cues.getInstance();
+  private static final int INITIAL_CAPACITY = 64;
+  /**
+   * Tracks 1 to 64 fit in the bitmask
+   */
+  private static final int MASK_TRACKS = 64;
+
   private long endOfEbmlHeaderBytePosition;
-  
+  private long[] times = new long[INITIAL_CAPACITY];
+  private long[] positions = new long[INITIAL_CAPACITY];
+  private long[] trackMasks = new long[INITIAL_CAPACITY];
+  private int count = 0;
+  /**
+   * Track numbers that don't fit in the bitmask, by cue index. Rare enough that they don't need to be compact.
+   */
+  private final Map<Integer, int[]> otherTracks = new HashMap<>();
+
   public MatroskaFileCues(long endOfEbmlHeaderBytePosition)
   {
     this.endOfEbmlHeaderBytePosition = endOfEbmlHeaderBytePosition;
@@ -22,48 +42,121 @@ public class MatroskaFileCues
 
   public void addCue(long positionInFile, long timecodeOfCluster, Collection<Integer> clusterTrackNumbers)
   {
-    LOG.debug("Adding matroska cue to cues element at position [{}], using timecode [{}], for track numbers [{}]", positionInFile, timecodeOfCluster, clusterTrackNumbers);
+    LOG.debug("Adding matroska cue at position [{}], using timecode [{}], for track numbers [{}]", positionInFile, timecodeOfCluster, clusterTrackNumbers);
 
-    UnsignedIntegerElement cueTime = MatroskaDocTypes.CueTime.getInstance();
-    cueTime.setValue(timecodeOfCluster);
-    MasterElement cuePoint = MatroskaDocTypes.CuePoint.getInstance();
-    MasterElement cueTrackPositions = createCueTrackPositions(positionInFile, clusterTrackNumbers);
-    
-    cues.addChildElement(cuePoint);
-    cuePoint.addChildElement(cueTime);
-    cuePoint.addChildElement(cueTrackPositions);
-    
-    LOG.debug("Finished adding matroska cue to cues element");
+    if (count == times.length)
+    {
+      final int capacity = count * 2;
+      times = Arrays.copyOf(times, capacity);
+      positions = Arrays.copyOf(positions, capacity);
+      trackMasks = Arrays.copyOf(trackMasks, capacity);
+    }
+    long mask = 0;
+    int[] others = null;
+    for (Integer trackNumber : clusterTrackNumbers)
+    {
+      if (trackNumber >= 1 && trackNumber <= MASK_TRACKS)
+      {
+        mask |= 1L << (trackNumber - 1);
+      }
+      else
+      {
+        others = others == null ? new int[1] : Arrays.copyOf(others, others.length + 1);
+        others[others.length - 1] = trackNumber;
+      }
+    }
+    times[count] = timecodeOfCluster;
+    positions[count] = getPositionRelativeToSegmentEbmlElement(positionInFile);
+    trackMasks[count] = mask;
+    if (others != null)
+    {
+      otherTracks.put(count, others);
+    }
+    count++;
   }
 
-  private MasterElement createCueTrackPositions(final long positionInFile, final Collection<Integer> trackNumbers)
+  /**
+   * @return the number of cue points added
+   */
+  public int size()
   {
-    MasterElement cueTrackPositions = MatroskaDocTypes.CueTrackPositions.getInstance();
-    
-    for (Integer trackNumber : trackNumbers)
+    return count;
+  }
+
+  /**
+   * @return the number of bytes write() will write
+   */
+  public long getTotalSize()
+  {
+    long totalSize = MatroskaDocTypes.Cues.getType().remaining() + EBMLWriter.DEFAULT_SIZE_LENGTH;
+    for (int i = 0; i < count; i++)
     {
-      UnsignedIntegerElement cueTrack = MatroskaDocTypes.CueTrack.getInstance();
-      cueTrack.setValue(trackNumber);
-      
-      UnsignedIntegerElement cueClusterPosition = MatroskaDocTypes.CueClusterPosition.getInstance();
-      cueClusterPosition.setValue(getPositionRelativeToSegmentEbmlElement(positionInFile));
-      
-      cueTrackPositions.addChildElement(cueTrack);
-      cueTrackPositions.addChildElement(cueClusterPosition);
+      totalSize += createCuePoint(i).getTotalSize();
     }
-    return cueTrackPositions;
+    return totalSize;
   }
-  
-  public Element write(DataWriter ioDW, MatroskaFileMetaSeek metaSeek)
+
+  /**
+   * Streams the Cues element out at the current position and adds it to the seek index. Only one cue point at a time is turned into elements.
+   *
+   * @return the number of bytes written
+   */
+  public long write(DataWriter ioDW, MatroskaFileMetaSeek metaSeek)
   {
     long currentBytePositionInFile = ioDW.getFilePointer();
     LOG.debug("Writing matroska cues at file byte position [{}]", currentBytePositionInFile);
-    long numberOfBytesInCueData = cues.writeElement(ioDW);
+    final EBMLWriter writer = new EBMLWriter(ioDW);
+    long numberOfBytesInCueData = writer.startMaster(MatroskaDocTypes.Cues.getType());
+    for (int i = 0; i < count; i++)
+    {
+      numberOfBytesInCueData += writer.writeElement(createCuePoint(i));
+    }
+    writer.endMaster();
     LOG.debug("Done writing matroska cues, number of bytes was [{}]", numberOfBytesInCueData);
-    
-    metaSeek.addIndexedElement(cues, getPositionRelativeToSegmentEbmlElement(currentBytePositionInFile));
-    
-    return cues;
+
+    metaSeek.addIndexedElement(MatroskaDocTypes.Cues.getType(), currentBytePositionInFile);
+
+    return numberOfBytesInCueData;
+  }
+
+  private MasterElement createCuePoint(final int index)
+  {
+    UnsignedIntegerElement cueTime = MatroskaDocTypes.CueTime.getInstance();
+    cueTime.setValue(times[index]);
+    MasterElement cuePoint = MatroskaDocTypes.CuePoint.getInstance();
+    cuePoint.addChildElement(cueTime);
+
+    long mask = trackMasks[index];
+    while (mask != 0)
+    {
+      final int trackNumber = Long.numberOfTrailingZeros(mask) + 1;
+      cuePoint.addChildElement(createCueTrackPositions(positions[index], trackNumber));
+      mask &= mask - 1;
+    }
+    final int[] others = otherTracks.get(index);
+    if (others != null)
+    {
+      for (int trackNumber : others)
+      {
+        cuePoint.addChildElement(createCueTrackPositions(positions[index], trackNumber));
+      }
+    }
+    return cuePoint;
+  }
+
+  private MasterElement createCueTrackPositions(final long clusterPosition, final int trackNumber)
+  {
+    MasterElement cueTrackPositions = MatroskaDocTypes.CueTrackPositions.getInstance();
+
+    UnsignedIntegerElement cueTrack = MatroskaDocTypes.CueTrack.getInstance();
+    cueTrack.setValue(trackNumber);
+
+    UnsignedIntegerElement cueClusterPosition = MatroskaDocTypes.CueClusterPosition.getInstance();
+    cueClusterPosition.setValue(clusterPosition);
+
+    cueTrackPositions.addChildElement(cueTrack);
+    cueTrackPositions.addChildElement(cueClusterPosition);
+    return cueTrackPositions;
   }
 
   private long getPositionRelativeToSegmentEbmlElement(long currentBytePositionInFile)
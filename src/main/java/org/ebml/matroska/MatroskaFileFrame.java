@@ -22,6 +22,7 @@ package org.ebml.matroska;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 
+import org.ebml.io.PooledBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,7 +36,7 @@ public class MatroskaFileFrame
 
   private int trackNo;
   /**
-   * A timecode, it should be in ms
+   * A timecode, in the timecode scale units of the file
    */
   private long timecode;
   /**
@@ -52,6 +53,19 @@ public class MatroskaFileFrame
    */
   private ByteBuffer data;
   private boolean keyFrame;
+  /**
+   * The pooled buffer the data is a view of, if the reader was given a pool
+   */
+  private PooledBuffer pooledBuffer = null;
+  private ReleaseListener releaseListener = null;
+
+  /**
+   * Told when a frame is released, once its data is no longer needed
+   */
+  public interface ReleaseListener
+  {
+    void frameReleased(MatroskaFileFrame frame);
+  }
 
   /**
    * MatroskaFrame Default constructor
@@ -82,6 +96,11 @@ public class MatroskaFileFrame
     {
       this.setData(copy.getData().duplicate());
     }
+    if (copy.pooledBuffer != null)
+    {
+      // The copy shares the data, so it holds a reference of its own
+      this.setPooledBuffer(copy.pooledBuffer);
+    }
   }
 
   /**
@@ -172,7 +191,7 @@ public class MatroskaFileFrame
    */
   public ByteBuffer getData()
   {
-    return data.duplicate();
+    return data == null ? null : data.duplicate();
   }
 
   /**
@@ -184,4 +203,53 @@ public class MatroskaFileFrame
     this.data = data.duplicate();
   }
 
+  /**
+   * Says the frame data is no longer needed. Frames read with a <code>BufferPool</code> set on the <code>MatroskaFile</code> give their data back
+   * to the pool, so it can't be used afterwards, and must be released once done with. <code>MatroskaFileWriter</code> releases every frame once it
+   * has written it, which tells the release listener, if any, and lets frames read from a pool be remuxed without copying them.
+   */
+  public void release()
+  {
+    final ReleaseListener listener = releaseListener;
+    releaseListener = null;
+    if (listener != null)
+    {
+      listener.frameReleased(this);
+    }
+    if (pooledBuffer != null)
+    {
+      final PooledBuffer buffer = pooledBuffer;
+      pooledBuffer = null;
+      data = null;
+      buffer.release();
+    }
+  }
+
+  public ReleaseListener getReleaseListener()
+  {
+    return releaseListener;
+  }
+
+  /**
+   * Sets who to tell when the frame is released, i.e. when <code>MatroskaFileWriter</code> has handed the data to its <code>DataWriter</code>.
+   * Until then the writer may still read the data buffer, afterwards it can be reused, e.g. for the encoder's next output. Copies of the frame do
+   * not share the listener.
+   */
+  public void setReleaseListener(final ReleaseListener releaseListener)
+  {
+    this.releaseListener = releaseListener;
+  }
+
+  /**
+   * Makes the frame hold a reference to the pooled buffer its data is in.
+   */
+  void setPooledBuffer(final PooledBuffer buffer)
+  {
+    final PooledBuffer previous = pooledBuffer;
+    pooledBuffer = buffer.retain();
+    if (previous != null)
+    {
+      previous.release();
+    }
+  }
 }
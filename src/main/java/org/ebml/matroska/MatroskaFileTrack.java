@@ -279,121 +279,25 @@ public class MatroskaFileTrack
     LOG.debug("Reading track from doc!");
     while (level3 != null)
     {
-      if (level3.isType(MatroskaDocTypes.TrackNumber.getType()))
-      {
-        level3.readData(ioDS);
-        track.setTrackNo((int) ((UnsignedIntegerElement) level3).getValue());
-      }
-      else if (level3.isType(MatroskaDocTypes.TrackUID.getType()))
-      {
-        level3.readData(ioDS);
-        track.setTrackUID(((UnsignedIntegerElement) level3).getValue());
-
-      }
-      else if (level3.isType(MatroskaDocTypes.TrackType.getType()))
-      {
-        level3.readData(ioDS);
-        track.setTrackType(TrackType.fromOrdinal(((UnsignedIntegerElement) level3).getValue()));
-      }
-      else if (level3.isType(MatroskaDocTypes.DefaultDuration.getType()))
-      {
-        level3.readData(ioDS);
-        track.setDefaultDuration(((UnsignedIntegerElement) level3).getValue());
-
-      }
-      else if (level3.isType(MatroskaDocTypes.Name.getType()))
-      {
-        level3.readData(ioDS);
-        track.setName(((StringElement) level3).getValue());
-
-      }
-      else if (level3.isType(MatroskaDocTypes.Language.getType()))
-      {
-        level3.readData(ioDS);
-        track.setLanguage(((StringElement) level3).getValue());
-
-      }
-      else if (level3.isType(MatroskaDocTypes.CodecID.getType()))
-      {
-        level3.readData(ioDS);
-        track.setCodecID(((StringElement) level3).getValue());
-
-      }
-      else if (level3.isType(MatroskaDocTypes.CodecPrivate.getType()))
-      {
-        level3.readData(ioDS);
-        track.setCodecPrivate(((BinaryElement) level3).getData());
-
-      }
-      else if (level3.isType(MatroskaDocTypes.Video.getType()))
+      if (level3.isType(MatroskaDocTypes.Video.getType()) || level3.isType(MatroskaDocTypes.Audio.getType()))
       {
+        track.readElement(level3);
         level4 = ((MasterElement) level3).readNextChild(reader);
-        track.video = new MatroskaVideoTrack();
         while (level4 != null)
         {
-          if (level4.isType(MatroskaDocTypes.PixelWidth.getType()))
-          {
-            level4.readData(ioDS);
-            track.video.setPixelWidth((short) ((UnsignedIntegerElement) level4).getValue());
-
-          }
-          else if (level4.isType(MatroskaDocTypes.PixelHeight.getType()))
-          {
-            level4.readData(ioDS);
-            track.video.setPixelHeight((short) ((UnsignedIntegerElement) level4).getValue());
-
-          }
-          else if (level4.isType(MatroskaDocTypes.DisplayWidth.getType()))
-          {
-            level4.readData(ioDS);
-            track.video.setDisplayWidth((short) ((UnsignedIntegerElement) level4).getValue());
-
-          }
-          else if (level4.isType(MatroskaDocTypes.DisplayHeight.getType()))
+          if (!(level4 instanceof MasterElement))
           {
             level4.readData(ioDS);
-            track.video.setDisplayHeight((short) ((UnsignedIntegerElement) level4).getValue());
+            track.readElement(level4);
           }
-
           level4.skipData(ioDS);
           level4 = ((MasterElement) level3).readNextChild(reader);
         }
-
       }
-      else if (level3.isType(MatroskaDocTypes.Audio.getType()))
+      else if (!(level3 instanceof MasterElement))
       {
-        level4 = ((MasterElement) level3).readNextChild(reader);
-        track.audio = new MatroskaAudioTrack();
-        while (level4 != null)
-        {
-          if (level4.isType(MatroskaDocTypes.SamplingFrequency.getType()))
-          {
-            level4.readData(ioDS);
-            track.audio.setSamplingFrequency((float) ((FloatElement) level4).getValue());
-
-          }
-          else if (level4.isType(MatroskaDocTypes.OutputSamplingFrequency.getType()))
-          {
-            level4.readData(ioDS);
-            track.audio.setOutputSamplingFrequency((float) ((FloatElement) level4).getValue());
-
-          }
-          else if (level4.isType(MatroskaDocTypes.Channels.getType()))
-          {
-            level4.readData(ioDS);
-            track.audio.setChannels((short) ((UnsignedIntegerElement) level4).getValue());
-
-          }
-          else if (level4.isType(MatroskaDocTypes.BitDepth.getType()))
-          {
-            level4.readData(ioDS);
-            track.audio.setBitDepth((byte) ((UnsignedIntegerElement) level4).getValue());
-          }
-
-          level4.skipData(ioDS);
-          level4 = ((MasterElement) level3).readNextChild(reader);
-        }
-
+        level3.readData(ioDS);
+        track.readElement(level3);
       }
       level3.skipData(ioDS);
       level3 = ((MasterElement) level2).readNextChild(reader);
@@ -402,6 +306,86 @@ public class MatroskaFileTrack
     return track;
   }
 
+  /**
+   * Sets the property held by an element of the TrackEntry, whose data has been read, or starts the Video or Audio settings for a master. Elements
+   * that aren't supported are ignored.
+   */
+  void readElement(final Element elem)
+  {
+    if (elem.isType(MatroskaDocTypes.TrackNumber.getType()))
+    {
+      setTrackNo((int) ((UnsignedIntegerElement) elem).getValue());
+    }
+    else if (elem.isType(MatroskaDocTypes.TrackUID.getType()))
+    {
+      setTrackUID(((UnsignedIntegerElement) elem).getValue());
+    }
+    else if (elem.isType(MatroskaDocTypes.TrackType.getType()))
+    {
+      setTrackType(TrackType.fromOrdinal(((UnsignedIntegerElement) elem).getValue()));
+    }
+    else if (elem.isType(MatroskaDocTypes.DefaultDuration.getType()))
+    {
+      setDefaultDuration(((UnsignedIntegerElement) elem).getValue());
+    }
+    else if (elem.isType(MatroskaDocTypes.Name.getType()))
+    {
+      setName(((StringElement) elem).getValue());
+    }
+    else if (elem.isType(MatroskaDocTypes.Language.getType()))
+    {
+      setLanguage(((StringElement) elem).getValue());
+    }
+    else if (elem.isType(MatroskaDocTypes.CodecID.getType()))
+    {
+      setCodecID(((StringElement) elem).getValue());
+    }
+    else if (elem.isType(MatroskaDocTypes.CodecPrivate.getType()))
+    {
+      setCodecPrivate(((BinaryElement) elem).getData());
+    }
+    else if (elem.isType(MatroskaDocTypes.Video.getType()))
+    {
+      video = new MatroskaVideoTrack();
+    }
+    else if (elem.isType(MatroskaDocTypes.PixelWidth.getType()))
+    {
+      video.setPixelWidth((short) ((UnsignedIntegerElement) elem).getValue());
+    }
+    else if (elem.isType(MatroskaDocTypes.PixelHeight.getType()))
+    {
+      video.setPixelHeight((short) ((UnsignedIntegerElement) elem).getValue());
+    }
+    else if (elem.isType(MatroskaDocTypes.DisplayWidth.getType()))
+    {
+      video.setDisplayWidth((short) ((UnsignedIntegerElement) elem).getValue());
+    }
+    else if (elem.isType(MatroskaDocTypes.DisplayHeight.getType()))
+    {
+      video.setDisplayHeight((short) ((UnsignedIntegerElement) elem).getValue());
+    }
+    else if (elem.isType(MatroskaDocTypes.Audio.getType()))
+    {
+      audio = new MatroskaAudioTrack();
+    }
+    else if (elem.isType(MatroskaDocTypes.SamplingFrequency.getType()))
+    {
+      audio.setSamplingFrequency((float) ((FloatElement) elem).getValue());
+    }
+    else if (elem.isType(MatroskaDocTypes.OutputSamplingFrequency.getType()))
+    {
+      audio.setOutputSamplingFrequency((float) ((FloatElement) elem).getValue());
+    }
+    else if (elem.isType(MatroskaDocTypes.Channels.getType()))
+    {
+      audio.setChannels((short) ((UnsignedIntegerElement) elem).getValue());
+    }
+    else if (elem.isType(MatroskaDocTypes.BitDepth.getType()))
+    {
+      audio.setBitDepth((byte) ((UnsignedIntegerElement) elem).getValue());
+    }
+  }
+
   Element toElement()
   {
     final MasterElement trackEntryElem = MatroskaDocTypes.TrackEntry.getInstance();
@@ -1,6 +1,8 @@
 package org.ebml.matroska;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import org.ebml.MasterElement;
 import org.ebml.io.DataWriter;
@@ -26,6 +28,11 @@ public class MatroskaFileTracks
     tracks.add(track);
   }
 
+  List<MatroskaFileTrack> getTracks()
+  {
+    return Collections.unmodifiableList(tracks);
+  }
+
   public long writeTracks(final DataWriter ioDW)
   {
     final MasterElement tracksElem = MatroskaDocTypes.Tracks.getInstance();
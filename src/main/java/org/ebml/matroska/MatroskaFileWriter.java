@@ -19,6 +19,13 @@
  */
 package org.ebml.matroska;
 
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.ebml.Element;
 import org.ebml.MasterElement;
 import org.ebml.StringElement;
 import org.ebml.UnsignedIntegerElement;
@@ -32,36 +39,73 @@ import org.slf4j.LoggerFactory;
 public class MatroskaFileWriter
 {
   private static final Logger LOG = LoggerFactory.getLogger(MatroskaFileWriter.class);
+  /**
+   * Markers passed to the writer thread in async mode
+   */
+  private static final MatroskaFileFrame FLUSH_MARKER = new MatroskaFileFrame();
+  private static final MatroskaFileFrame CLOSE_MARKER = new MatroskaFileFrame();
 
   protected DataWriter ioDW;
+  /**
+   * Set when writing to a DataWriter that can't seek: everything is written once, in order
+   */
+  private final boolean live;
+  private boolean liveHeadersWritten = false;
 
   private final MatroskaFileMetaSeek metaSeek;
   private final MatroskaFileCues cueData;
   private final MatroskaCluster cluster;
   private final MatroskaSegmentInfo segmentInfoElem;
   private final MatroskaFileTracks tracks;
+  private long segmentHeaderPosition;
+  private long endOfSegmentHeader;
+  /**
+   * Space reserved for the Cues ahead of the clusters, in fast start mode
+   */
+  private long cuesReservePosition = -1;
+  private long cuesReserveSize = 0;
+  private BlockingQueue<MatroskaFileFrame> asyncQueue = null;
+  private Thread asyncThread = null;
+  private volatile Throwable asyncError = null;
+  private MatroskaFrameInterleaver interleaver = null;
+  /**
+   * Set while a producer thread is passing interleaved frames on
+   */
+  private final AtomicBoolean draining = new AtomicBoolean();
 
   /**
-   * @param outputDataWriter DataWriter to write out to.
+   * @param outputDataWriter DataWriter to write out to. If it can't seek, e.g. a <code>ChannelDataWriter</code> over a pipe or socket, the file is
+   *          written live: Info and Tracks are written once, when the first frame arrives, and each frame is written as soon as it is added, in
+   *          clusters of unknown size. There is no SeekHead or Cues, and nothing is updated at close(), so set the tracks, timecode scale and
+   *          duration before adding frames.
    */
   public MatroskaFileWriter(final DataWriter outputDataWriter)
   {
     ioDW = outputDataWriter;
+    live = !ioDW.isSeekable();
     writeEBMLHeader();
+    segmentHeaderPosition = ioDW.getFilePointer();
     writeSegmentHeader();
-    long endOfSegmentHeader = ioDW.getFilePointer();
+    endOfSegmentHeader = ioDW.getFilePointer();
     metaSeek = new MatroskaFileMetaSeek(endOfSegmentHeader);
     cueData = new MatroskaFileCues(endOfSegmentHeader);
-    metaSeek.write(ioDW);
-    segmentInfoElem = new MatroskaSegmentInfo(ioDW.getFilePointer());
-    metaSeek.addIndexedElement(MatroskaDocTypes.Info.getType(), ioDW.getFilePointer());
-    segmentInfoElem.writeElement(ioDW);
-    metaSeek.addIndexedElement(MatroskaDocTypes.Tracks.getType(), ioDW.getFilePointer());
-    tracks = new MatroskaFileTracks(ioDW.getFilePointer());
-    tracks.writeTracks(ioDW);
+    if (live)
+    {
+      segmentInfoElem = new MatroskaSegmentInfo(-1);
+      tracks = new MatroskaFileTracks(-1);
+    }
+    else
+    {
+      metaSeek.write(ioDW);
+      segmentInfoElem = new MatroskaSegmentInfo(ioDW.getFilePointer());
+      metaSeek.addIndexedElement(MatroskaDocTypes.Info.getType(), ioDW.getFilePointer());
+      segmentInfoElem.writeElement(ioDW);
+      metaSeek.addIndexedElement(MatroskaDocTypes.Tracks.getType(), ioDW.getFilePointer());
+      tracks = new MatroskaFileTracks(ioDW.getFilePointer());
+      tracks.writeTracks(ioDW);
+    }
     cluster = new MatroskaCluster();
-    cluster.setLimitParameters(5000, 128 * 1024);
-    metaSeek.addIndexedElement(MatroskaDocTypes.Cluster.getType(), ioDW.getFilePointer());
+    cluster.setPolicy(new MatroskaClusterPolicy.Any(new MatroskaClusterPolicy.MaxDuration(5000), new MatroskaClusterPolicy.MaxSize(128 * 1024)));
   }
 
   void writeEBMLHeader()
@@ -146,6 +190,57 @@ public class MatroskaFileWriter
     segmentInfoElem.setDuration(duration);
   }
 
+  /**
+   * Places the Cues ahead of the clusters, and fills in the Segment size at close(), so that players can seek without fetching the end of the file
+   * first. Space for the Cues is reserved now: each cue point takes roughly 10 bytes plus 10 per track in its cluster, and there is one per
+   * cluster. If the Cues turn out larger than the space reserved, they are written at the end as usual. Call this before adding any frames.
+   *
+   * @param reservedCueBytes Number of bytes to reserve for the Cues, at least 2, the smallest Void
+   * @throws IllegalArgumentException if reservedCueBytes is too small or too large for a Void, in which case nothing is written
+   */
+  public void setFastStart(final long reservedCueBytes)
+  {
+    if (live)
+    {
+      throw new IllegalStateException("Fast start needs a seekable writer");
+    }
+    if (cuesReservePosition >= 0 || cueData.size() > 0 || !cluster.isEmpty())
+    {
+      throw new IllegalStateException("Fast start must be set once, before adding frames");
+    }
+    if (reservedCueBytes < 2)
+    {
+      throw new IllegalArgumentException("Cannot reserve " + reservedCueBytes + " bytes for the Cues");
+    }
+    final VoidElement reserve = new VoidElement(reservedCueBytes);
+    final long position = ioDW.getFilePointer();
+    reserve.writeElement(ioDW);
+    cuesReservePosition = position;
+    cuesReserveSize = reservedCueBytes;
+  }
+
+  public boolean isFastStart()
+  {
+    return cuesReservePosition >= 0;
+  }
+
+  public MatroskaClusterPolicy getClusterPolicy()
+  {
+    return cluster.getPolicy();
+  }
+
+  /**
+   * Sets where clusters begin. Defaults to a new cluster after 5000 timecode units (5 seconds at the default scale) or 128 KiB of frame data,
+   * whichever comes first. Use
+   * MatroskaClusterPolicy.KeyFrame to start clusters on video key frames, which makes seeking faster. Call this before adding any frames.
+   *
+   * @param policy
+   */
+  public void setClusterPolicy(final MatroskaClusterPolicy policy)
+  {
+    cluster.setPolicy(policy);
+  }
+
   /**
    * Adds a track to the file. You may add tracks at any time before close()ing, even after adding frames for the track.
    * 
@@ -154,6 +249,10 @@ public class MatroskaFileWriter
   public void addTrack(final MatroskaFileTrack track)
   {
     tracks.addTrack(track);
+    if (interleaver != null)
+    {
+      interleaver.addTrack(track.getTrackNo());
+    }
   }
 
   /**
@@ -173,16 +272,107 @@ public class MatroskaFileWriter
   }
 
   /**
-   * Add a frame
+   * Switches to asynchronous muxing. Frames passed to addFrame() are queued, and a writer thread builds and writes the clusters, so the caller
+   * doesn't wait for the disk unless the queue fills up. Errors on the writer thread are thrown from the next addFrame(), flush() or close(). Call
+   * this before adding any frames.
+   *
+   * @param queueCapacity Number of frames that can wait for the writer thread before addFrame() blocks
+   */
+  public void setAsync(final int queueCapacity)
+  {
+    if (asyncQueue != null)
+    {
+      throw new IllegalStateException("Already writing asynchronously");
+    }
+    asyncQueue = new ArrayBlockingQueue<>(queueCapacity);
+    asyncThread = new Thread("MatroskaFileWriter")
+    {
+      @Override
+      public void run()
+      {
+        writeQueuedFrames();
+      }
+    };
+    asyncThread.setDaemon(true);
+    asyncThread.start();
+  }
+
+  public boolean isAsync()
+  {
+    return asyncQueue != null;
+  }
+
+  /**
+   * Lets several threads add frames at once, e.g. one per encoder. Each track gets its own lock-free queue, and frames are merged from them in
+   * timecode order, so clusters are interleaved correctly without the threads locking each other out. The frames of each track must still be added
+   * in timecode order. A frame is held back until every track has a frame queued, or until it is latencyWindow older than the newest frame added,
+   * so a track that goes quiet delays the others by at most that much; frames that arrive later than that may end up out of order. Call this before
+   * adding any frames; combine with setAsync() to keep the producer threads off the disk as well.
+   *
+   * @param latencyWindow Longest time, in timecode units, to wait for a track with nothing queued
+   */
+  public void setInterleaved(final long latencyWindow)
+  {
+    if (interleaver != null)
+    {
+      throw new IllegalStateException("Already interleaving frames");
+    }
+    interleaver = new MatroskaFrameInterleaver(latencyWindow);
+    for (final MatroskaFileTrack track: tracks.getTracks())
+    {
+      interleaver.addTrack(track.getTrackNo());
+    }
+  }
+
+  public boolean isInterleaved()
+  {
+    return interleaver != null;
+  }
+
+  /**
+   * Add a frame. Its data buffer is not copied, so it must be left alone until the writer releases the frame, which it does once the data has been
+   * written. Set a release listener on the frame to find out when that is.
    * 
    * @param frame The frame to add
    */
   public void addFrame(final MatroskaFileFrame frame)
   {
-    if (!cluster.addFrame(frame))
+    if (interleaver != null)
+    {
+      interleaver.add(frame);
+      drainInterleaver();
+      return;
+    }
+    addOrderedFrame(frame);
+  }
+
+  private void addOrderedFrame(final MatroskaFileFrame frame)
+  {
+    if (asyncQueue != null)
+    {
+      enqueue(frame);
+      return;
+    }
+    addToCluster(frame);
+  }
+
+  private void addToCluster(final MatroskaFileFrame frame)
+  {
+    if (live)
+    {
+      writeLiveHeaders();
+      if (cluster.isNewCluster(frame))
+      {
+        cluster.endLiveCluster();
+      }
+      cluster.writeLiveFrame(frame, ioDW);
+      return;
+    }
+    if (cluster.isNewCluster(frame))
     {
       flush();
     }
+    cluster.addFrame(frame);
   }
 
   /**
@@ -190,7 +380,25 @@ public class MatroskaFileWriter
    */
   public void flush()
   {
+    if (asyncQueue != null && Thread.currentThread() != asyncThread)
+    {
+      enqueue(FLUSH_MARKER);
+      return;
+    }
+    if (live)
+    {
+      cluster.endLiveCluster();
+      return;
+    }
+    if (cluster.isEmpty())
+    {
+      return;
+    }
     final long clusterPos = ioDW.getFilePointer();
+    if (cueData.size() == 0)
+    {
+      metaSeek.addIndexedElement(MatroskaDocTypes.Cluster.getType(), clusterPos);
+    }
     cueData.addCue(clusterPos, cluster.getClusterTimecode(), cluster.getTracks());
     LOG.debug("Cluster flushing, timecode {}", cluster.getClusterTimecode());
     cluster.flush(ioDW);
@@ -201,11 +409,200 @@ public class MatroskaFileWriter
    */
   public void close()
   {
+    if (interleaver != null)
+    {
+      // Producers are done by now, but one may still be finishing a drain
+      while (!draining.compareAndSet(false, true))
+      {
+        Thread.yield();
+      }
+      try
+      {
+        MatroskaFileFrame frame;
+        while ((frame = interleaver.pollAny()) != null)
+        {
+          addOrderedFrame(frame);
+        }
+      }
+      finally
+      {
+        draining.set(false);
+      }
+    }
+    if (asyncQueue != null)
+    {
+      enqueue(CLOSE_MARKER);
+      try
+      {
+        asyncThread.join();
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("Interrupted while waiting for queued frames to be written", ex);
+      }
+      checkAsyncError();
+      asyncQueue = null;
+      asyncThread = null;
+    }
+    if (live)
+    {
+      writeLiveHeaders();
+      cluster.endLiveCluster();
+      return;
+    }
     flush();
 
-    cueData.write(ioDW, metaSeek);
+    writeCues();
     metaSeek.update(ioDW);
     segmentInfoElem.update(ioDW);
     tracks.update(ioDW);
+    if (isFastStart())
+    {
+      writeSegmentSize();
+    }
+  }
+
+  /**
+   * Writes Info and Tracks in live mode, once the tracks are known
+   */
+  private void writeLiveHeaders()
+  {
+    if (!liveHeadersWritten)
+    {
+      liveHeadersWritten = true;
+      segmentInfoElem.writeElement(ioDW);
+      tracks.writeTracks(ioDW);
+    }
+  }
+
+  private void writeCues()
+  {
+    if (isFastStart())
+    {
+      final long cuesSize = cueData.getTotalSize();
+      // The rest of the reserved space must be big enough for a Void element
+      if (cuesSize == cuesReserveSize || cuesSize <= cuesReserveSize - 2)
+      {
+        final long end = ioDW.getFilePointer();
+        ioDW.seek(cuesReservePosition);
+        cueData.write(ioDW, metaSeek);
+        if (cuesSize < cuesReserveSize)
+        {
+          new VoidElement(cuesReserveSize - cuesSize).writeElement(ioDW);
+        }
+        ioDW.seek(end);
+        return;
+      }
+      LOG.warn("Cues of {} bytes don't fit in the {} bytes reserved, writing them at the end", cuesSize, cuesReserveSize);
+    }
+    cueData.write(ioDW, metaSeek);
+  }
+
+  /**
+   * Replaces the unknown size the Segment was started with by its real size, if that fits in the same number of bytes.
+   */
+  private void writeSegmentSize()
+  {
+    final long end = ioDW.getFilePointer();
+    final long segmentSize = end - endOfSegmentHeader;
+    final int sizeLength = (int) (endOfSegmentHeader - segmentHeaderPosition) - MatroskaDocTypes.Segment.getType().remaining();
+    if (segmentSize >= (1L << (7 * sizeLength)) - 1)
+    {
+      LOG.warn("Segment of {} bytes is too large for its size field, leaving the size unknown", segmentSize);
+      return;
+    }
+    ioDW.seek(segmentHeaderPosition + MatroskaDocTypes.Segment.getType().remaining());
+    ioDW.write(ByteBuffer.wrap(Element.makeEbmlCodedSize(segmentSize, sizeLength)));
+    ioDW.seek(end);
+  }
+
+  /**
+   * Passes the interleaved frames that are ready on. Whichever producer gets here first does this, the others carry on without waiting.
+   */
+  private void drainInterleaver()
+  {
+    while (draining.compareAndSet(false, true))
+    {
+      try
+      {
+        MatroskaFileFrame frame;
+        while ((frame = interleaver.poll()) != null)
+        {
+          addOrderedFrame(frame);
+        }
+      }
+      finally
+      {
+        draining.set(false);
+      }
+      // Another producer may have made a frame ready after the last poll, and given up because we were still draining
+      if (!interleaver.isReady())
+      {
+        return;
+      }
+    }
+  }
+
+  private void enqueue(final MatroskaFileFrame frame)
+  {
+    checkAsyncError();
+    try
+    {
+      // Blocks while the writer thread is behind
+      while (!asyncQueue.offer(frame, 100, TimeUnit.MILLISECONDS))
+      {
+        checkAsyncError();
+      }
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while waiting to queue a frame", ex);
+    }
+  }
+
+  private void checkAsyncError()
+  {
+    final Throwable error = asyncError;
+    if (error != null)
+    {
+      throw new RuntimeException("Writing frames failed", error);
+    }
+  }
+
+  /**
+   * Writer thread loop for async mode
+   */
+  private void writeQueuedFrames()
+  {
+    try
+    {
+      while (true)
+      {
+        final MatroskaFileFrame frame = asyncQueue.take();
+        if (frame == CLOSE_MARKER)
+        {
+          return;
+        }
+        if (frame == FLUSH_MARKER)
+        {
+          flush();
+        }
+        else
+        {
+          addToCluster(frame);
+        }
+      }
+    }
+    catch (final InterruptedException ex)
+    {
+      asyncError = ex;
+    }
+    catch (final RuntimeException | Error ex)
+    {
+      LOG.error("Writing frames failed", ex);
+      asyncError = ex;
+    }
   }
 }
@@ -0,0 +1,152 @@
+/**
+ * JEBML - Java library to read/write EBML/Matroska elements.
+ * Copyright (C) 2004 Jory Stone <jebml@jory.info>
+ * Based on Javatroska (C) 2002 John Cannon <spyder@matroska.org>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.ebml.matroska;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Merges frames added by several threads into timecode order. Each track has its own lock-free queue, so producers never wait for each other, and
+ * the frames of each track must be added in timecode order. A single consumer takes frames out in order: the earliest queued frame is ready once
+ * every track has a frame queued, since no track can then add an earlier one, or once it is more than the latency window older than the newest
+ * frame added, so that a quiet track only holds the others back for a bounded time. Used internally during muxing.
+ */
+class MatroskaFrameInterleaver
+{
+  private final ConcurrentMap<Integer, Queue<MatroskaFileFrame>> trackQueues = new ConcurrentHashMap<>();
+  private final AtomicLong latestTimecode = new AtomicLong(Long.MIN_VALUE);
+  private final long latencyWindow;
+
+  /**
+   * @param latencyWindow How far, in timecode units, the newest frame may get ahead of a track that has nothing queued before frames are let through
+   *          without it
+   */
+  MatroskaFrameInterleaver(final long latencyWindow)
+  {
+    this.latencyWindow = latencyWindow;
+  }
+
+  /**
+   * Makes the track known before its first frame arrives, so frames of other tracks wait for it.
+   */
+  void addTrack(final int trackNo)
+  {
+    getQueue(trackNo);
+  }
+
+  /**
+   * Adds a frame. Safe to call from any thread.
+   */
+  void add(final MatroskaFileFrame frame)
+  {
+    getQueue(frame.getTrackNo()).add(frame);
+    long latest = latestTimecode.get();
+    while (frame.getTimecode() > latest && !latestTimecode.compareAndSet(latest, frame.getTimecode()))
+    {
+      latest = latestTimecode.get();
+    }
+  }
+
+  /**
+   * Takes the earliest frame out if it is ready. Only one thread at a time may call this.
+   *
+   * @return the frame, or null if none is ready yet
+   */
+  MatroskaFileFrame poll()
+  {
+    return poll(false);
+  }
+
+  /**
+   * Takes the earliest frame out without waiting for other tracks, used when no more frames are coming. Only one thread at a time may call this.
+   *
+   * @return the frame, or null if there are none left
+   */
+  MatroskaFileFrame pollAny()
+  {
+    return poll(true);
+  }
+
+  /**
+   * @return true if poll() would return a frame
+   */
+  boolean isReady()
+  {
+    return findEarliest(false) != null;
+  }
+
+  private MatroskaFileFrame poll(final boolean any)
+  {
+    final Queue<MatroskaFileFrame> earliest = findEarliest(any);
+    // Producers only ever add to the tail, so the head found is still there
+    return earliest == null ? null : earliest.poll();
+  }
+
+  /**
+   * @return the queue whose head is the earliest frame, if that frame is ready or any is set
+   */
+  private Queue<MatroskaFileFrame> findEarliest(final boolean any)
+  {
+    Queue<MatroskaFileFrame> earliest = null;
+    long earliestTimecode = Long.MAX_VALUE;
+    boolean allQueued = true;
+    for (final Queue<MatroskaFileFrame> queue: trackQueues.values())
+    {
+      final MatroskaFileFrame head = queue.peek();
+      if (head == null)
+      {
+        allQueued = false;
+      }
+      else if (head.getTimecode() < earliestTimecode)
+      {
+        earliestTimecode = head.getTimecode();
+        earliest = queue;
+      }
+    }
+    if (earliest == null)
+    {
+      return null;
+    }
+    final long latest = latestTimecode.get();
+    if (any || allQueued || (latest != Long.MIN_VALUE && latest - earliestTimecode >= latencyWindow))
+    {
+      return earliest;
+    }
+    return null;
+  }
+
+  private Queue<MatroskaFileFrame> getQueue(final int trackNo)
+  {
+    Queue<MatroskaFileFrame> queue = trackQueues.get(trackNo);
+    if (queue == null)
+    {
+      final Queue<MatroskaFileFrame> newQueue = new ConcurrentLinkedQueue<>();
+      queue = trackQueues.putIfAbsent(trackNo, newQueue);
+      if (queue == null)
+      {
+        queue = newQueue;
+      }
+    }
+    return queue;
+  }
+}
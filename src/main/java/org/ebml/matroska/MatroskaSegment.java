@@ -21,6 +21,7 @@ package org.ebml.matroska;
 
 import java.nio.ByteBuffer;
 
+import org.ebml.EBMLWriter;
 import org.ebml.Element;
 import org.ebml.MasterElement;
 import org.ebml.io.DataWriter;
@@ -52,7 +53,7 @@ public class MatroskaSegment extends MasterElement
     byte[] size;
     if (bUnknownSize)
     {
-      size = new byte[5];
+      size = new byte[EBMLWriter.DEFAULT_SIZE_LENGTH];
       size[0] = (byte) (0xFF >>> (size.length - 1));
       for (int i = 1; i < size.length; i++)
       {
@@ -73,8 +74,10 @@ public class MatroskaSegment extends MasterElement
   /**
    * Setter for Unknown Size flag. This is a special case for ebml. The size value is filled with 1's.
    */
+  @Override
   public void setUnknownSize(final boolean bUnknownSize)
   {
+    super.setUnknownSize(bUnknownSize);
     this.bUnknownSize = bUnknownSize;
   }
 
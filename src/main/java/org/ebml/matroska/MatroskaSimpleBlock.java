@@ -11,6 +11,7 @@ import org.ebml.Element;
 import org.ebml.MasterElement;
 import org.ebml.UnsignedIntegerElement;
 import org.ebml.io.DataSource;
+import org.ebml.io.DataWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -20,6 +21,10 @@ class MatroskaSimpleBlock
 
   // Note: this max size based on libmatroska src
   private static final int MAX_LACE_SIZE = 6 * 0xFF;
+  /**
+   * Track number, timecode, flags and the largest lace sizes buffer
+   */
+  private static final int MAX_HEADER_SIZE = 2 + 2 + 1 + 30;
   private int trackNumber = 0;
   private short timecode = 0;
   private boolean keyFrame = true;
@@ -27,7 +32,6 @@ class MatroskaSimpleBlock
   private boolean invisible = false;
   private boolean discardable = false;
   private final List<MatroskaFileFrame> frames = new ArrayList<>();
-  private int totalSize = 18;
 
   private long duration = Long.MIN_VALUE;
 
@@ -77,7 +81,83 @@ class MatroskaSimpleBlock
 
   private ByteBuffer createInnerData()
   {
-    final ByteBuffer buf = ByteBuffer.allocate(totalSize);
+    final ByteBuffer header = createBlockHeader();
+    final ByteBuffer buf = ByteBuffer.allocate(header.remaining() + getFramesSize());
+    buf.put(header);
+    for (final MatroskaFileFrame frame: frames)
+    {
+      LOG.trace("Writing frame {}", frame.getData().remaining());
+      buf.put(frame.getData());
+    }
+    buf.flip();
+    return buf;
+  }
+
+  /**
+   * Writes the block out as an element, without copying the frame data: the headers and the frames' own buffers are handed to the writer together
+   * in a single gathering write.
+   *
+   * @return the number of bytes written
+   */
+  long writeElement(final DataWriter writer)
+  {
+    final ByteBuffer blockHeader = createBlockHeader();
+    final long blockSize = blockHeader.remaining() + getFramesSize();
+    final ByteBuffer blockType = isSimpleBlock() ? MatroskaDocTypes.SimpleBlock.getType() : MatroskaDocTypes.Block.getType();
+    final byte[] blockCodedSize = Element.makeEbmlCodedSize(blockSize);
+    final ByteBuffer[] buffers = new ByteBuffer[frames.size() + 2];
+    int headerSize = blockType.remaining() + blockCodedSize.length + blockHeader.remaining();
+    UnsignedIntegerElement durationElem = null;
+    byte[] groupCodedSize = null;
+    if (!isSimpleBlock())
+    {
+      durationElem = MatroskaDocTypes.BlockDuration.getInstance();
+      durationElem.setValue(duration);
+      final long groupSize = blockType.remaining() + blockCodedSize.length + blockSize + durationElem.getTotalSize();
+      groupCodedSize = Element.makeEbmlCodedSize(groupSize);
+      headerSize += MatroskaDocTypes.BlockGroup.getType().remaining() + groupCodedSize.length;
+    }
+
+    final ByteBuffer header = ByteBuffer.allocate(headerSize);
+    if (groupCodedSize != null)
+    {
+      header.put(MatroskaDocTypes.BlockGroup.getType().duplicate());
+      header.put(groupCodedSize);
+    }
+    header.put(blockType.duplicate());
+    header.put(blockCodedSize);
+    header.put(blockHeader);
+    header.flip();
+    buffers[0] = header;
+    for (int i = 0; i < frames.size(); i++)
+    {
+      buffers[i + 1] = frames.get(i).getData();
+    }
+    if (durationElem != null)
+    {
+      final ByteBuffer durationType = durationElem.getType();
+      final byte[] durationCodedSize = Element.makeEbmlCodedSize(durationElem.getSize());
+      final ByteBuffer durationData = durationElem.getData();
+      final ByteBuffer trailer = ByteBuffer.allocate(durationType.remaining() + durationCodedSize.length + durationData.remaining());
+      trailer.put(durationType.duplicate());
+      trailer.put(durationCodedSize);
+      trailer.put(durationData);
+      trailer.flip();
+      buffers[buffers.length - 1] = trailer;
+    }
+    else
+    {
+      buffers[buffers.length - 1] = ByteBuffer.allocate(0);
+    }
+    return writer.write(buffers);
+  }
+
+  /**
+   * @return the track number, timecode, flags and lace sizes that start the block data
+   */
+  private ByteBuffer createBlockHeader()
+  {
+    final ByteBuffer buf = ByteBuffer.allocate(MAX_HEADER_SIZE);
 
     assert trackNumber < 0x4000;
     if (trackNumber < 0x80)
@@ -124,13 +204,18 @@ class MatroskaSimpleBlock
     {
       buf.put(sizes);
     }
+    buf.flip();
+    return buf;
+  }
+
+  private int getFramesSize()
+  {
+    int size = 0;
     for (final MatroskaFileFrame frame: frames)
     {
-      LOG.trace("Writing frame {}", frame.getData().remaining());
-      buf.put(frame.getData());
+      size += frame.getData().remaining();
     }
-    buf.flip();
-    return buf;
+    return size;
   }
 
   private MatroskaLaceMode pickBestLaceMode()
@@ -184,9 +269,12 @@ class MatroskaSimpleBlock
     return timecode;
   }
 
+  /**
+   * @param timecode Offset from the cluster timecode, which must fit in a signed 16 bit block timecode
+   */
   public void setTimecode(final long timecode)
   {
-    assert timecode < Short.MAX_VALUE;
+    assert timecode >= Short.MIN_VALUE && timecode <= Short.MAX_VALUE;
     this.timecode = (short) timecode;
   }
 
@@ -225,7 +313,6 @@ class MatroskaSimpleBlock
     LOG.trace("Adding frame {}", frame.getData().remaining());
     setTimecode(frame.getTimecode());
     setTrackNumber(frame.getTrackNo());
-    totalSize += frame.getData().remaining();
     frames.add(frame);
     if (frame.getDuration() != Long.MIN_VALUE)
     {
@@ -237,8 +324,6 @@ class MatroskaSimpleBlock
       laceMode = MatroskaLaceMode.NONE;
       return false;
     }
-    totalSize += 4;
-
     return !isSimpleBlock() || !(laceMode.equals(MatroskaLaceMode.NONE) || frames.size() > 8);
   }
 
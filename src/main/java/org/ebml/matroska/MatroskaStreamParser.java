@@ -0,0 +1,192 @@
+/**
+ * JEBML - Java library to read/write EBML/Matroska elements.
+ * Copyright (C) 2004 Jory Stone <jebml@jory.info>
+ * Based on Javatroska (C) 2002 John Cannon <spyder@matroska.org>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.ebml.matroska;
+
+import java.nio.ByteBuffer;
+
+import org.ebml.EBMLParser;
+import org.ebml.Element;
+import org.ebml.MasterElement;
+import org.ebml.SignedIntegerElement;
+import org.ebml.UnsignedIntegerElement;
+
+/**
+ * Demuxes a Matroska stream that arrives in chunks, such as a live WebM feed from a socket, without blocking. It sits on an
+ * <code>EBMLParser</code>, so the chunks can be split anywhere, and reports each track as soon as its TrackEntry is complete and each frame as soon
+ * as its block is. Cues, tags and other elements that aren't needed for demuxing are skipped as they go by.
+ * <p>
+ * Like the parser, it is not thread safe, each stream needs its own.
+ */
+public class MatroskaStreamParser
+{
+  /**
+   * Receives the tracks and frames of the stream
+   */
+  public interface Listener
+  {
+    void track(MatroskaFileTrack track);
+
+    void frame(MatroskaFileFrame frame);
+  }
+
+  private final EBMLParser parser;
+  private final Listener listener;
+  private long timecodeScale = 1000000;
+  private long clusterTimecode = 0;
+  /**
+   * The TrackEntry being read
+   */
+  private MatroskaFileTrack track = null;
+  // The BlockGroup being read, its frames are only complete once the duration and references that follow the block have been read
+  private MatroskaBlock groupBlock = null;
+  private long groupDuration = 0;
+  private long groupReference = 0;
+
+  public MatroskaStreamParser(final Listener listener)
+  {
+    this.listener = listener;
+    this.parser = new EBMLParser(new Handler());
+  }
+
+  /**
+   * Parses the remaining bytes of a chunk of the stream, reporting the tracks and frames it completes.
+   */
+  public void feed(final ByteBuffer chunk)
+  {
+    parser.feed(chunk);
+  }
+
+  /**
+   * Signals the end of the stream.
+   */
+  public void finish()
+  {
+    parser.finish();
+  }
+
+  public long getTimecodeScale()
+  {
+    return timecodeScale;
+  }
+
+  /**
+   * @return the number of bytes parsed so far
+   */
+  public long getPosition()
+  {
+    return parser.getPosition();
+  }
+
+  private void sendFrames(final MatroskaBlock block, final long duration, final long reference)
+  {
+    final MatroskaFileFrame frame = new MatroskaFileFrame();
+    frame.setTrackNo(block.getTrackNo());
+    frame.setTimecode(block.getAdjustedBlockTimecode(clusterTimecode, timecodeScale));
+    frame.setDuration(duration);
+    frame.setKeyFrame(block.isKeyFrame());
+    if (reference != 0)
+    {
+      frame.addReferences(reference);
+    }
+    for (int f = 0; f < block.getFrameCount(); f++)
+    {
+      frame.setData(block.getFrame(f));
+      listener.frame(new MatroskaFileFrame(frame));
+    }
+  }
+
+  private class Handler implements EBMLParser.Handler
+  {
+    @Override
+    public boolean startMaster(final MasterElement element)
+    {
+      if (element.isType(MatroskaDocTypes.TrackEntry.getType()))
+      {
+        track = new MatroskaFileTrack();
+        return true;
+      }
+      if (element.isType(MatroskaDocTypes.Video.getType()) || element.isType(MatroskaDocTypes.Audio.getType()))
+      {
+        track.readElement(element);
+        return true;
+      }
+      if (element.isType(MatroskaDocTypes.BlockGroup.getType()))
+      {
+        groupBlock = null;
+        groupDuration = 0;
+        groupReference = 0;
+        return true;
+      }
+      return element.isType(MatroskaDocTypes.Segment.getType()) || element.isType(MatroskaDocTypes.Info.getType())
+          || element.isType(MatroskaDocTypes.Tracks.getType()) || element.isType(MatroskaDocTypes.Cluster.getType());
+    }
+
+    @Override
+    public void endMaster(final MasterElement element)
+    {
+      if (element.isType(MatroskaDocTypes.TrackEntry.getType()))
+      {
+        listener.track(track);
+        track = null;
+      }
+      else if (element.isType(MatroskaDocTypes.BlockGroup.getType()) && groupBlock != null)
+      {
+        sendFrames(groupBlock, groupDuration, groupReference);
+        groupBlock = null;
+      }
+    }
+
+    @Override
+    public void element(final Element element)
+    {
+      if (track != null)
+      {
+        track.readElement(element);
+      }
+      else if (element.isType(MatroskaDocTypes.TimecodeScale.getType()))
+      {
+        timecodeScale = ((UnsignedIntegerElement) element).getValue();
+      }
+      else if (element.isType(MatroskaDocTypes.Timecode.getType()))
+      {
+        clusterTimecode = ((UnsignedIntegerElement) element).getValue();
+      }
+      else if (element.isType(MatroskaDocTypes.SimpleBlock.getType()))
+      {
+        final MatroskaBlock block = new MatroskaBlock(element.getData());
+        block.parseBlock();
+        sendFrames(block, 0, 0);
+      }
+      else if (element.isType(MatroskaDocTypes.Block.getType()))
+      {
+        groupBlock = new MatroskaBlock(element.getData());
+        groupBlock.parseBlock();
+      }
+      else if (element.isType(MatroskaDocTypes.BlockDuration.getType()))
+      {
+        groupDuration = ((UnsignedIntegerElement) element).getValue();
+      }
+      else if (element.isType(MatroskaDocTypes.ReferenceBlock.getType()))
+      {
+        groupReference = ((SignedIntegerElement) element).getValue();
+      }
+    }
+  }
+}
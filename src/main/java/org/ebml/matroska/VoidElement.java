@@ -32,7 +32,11 @@ import org.ebml.io.DataWriter;
  */
 public class VoidElement extends Element
 {
-  private static final long MAX_SIZE = (long) (Math.pow(2, 56) - 2);
+  private static final long MAX_SIZE = Element.MAX_CODED_SIZE;
+  /**
+   * Large voids are written this many bytes at a time
+   */
+  private static final int FILL_SIZE = 64 * 1024;
   private long realSize;
 
   /*
@@ -75,9 +79,22 @@ public class VoidElement extends Element
   @Override
   public long writeData(final DataWriter ioDW)
   {
-    final byte[] voids = new byte[(int) getSize()];
+    final byte[] voids = new byte[(int) Math.min(getSize(), FILL_SIZE)];
     Arrays.fill(voids, (byte) 1);
-    return ioDW.write(ByteBuffer.wrap(voids));
+    final ByteBuffer buf = ByteBuffer.wrap(voids);
+    long written = 0;
+    while (written < getSize())
+    {
+      buf.clear();
+      buf.limit((int) Math.min(getSize() - written, voids.length));
+      ioDW.write(buf);
+      if (buf.position() == 0)
+      {
+        break;
+      }
+      written += buf.position();
+    }
+    return written;
   }
 
   @Override
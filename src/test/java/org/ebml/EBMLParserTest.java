@@ -0,0 +1,211 @@
+package org.ebml;
+
+import static org.ebml.ElementBytes.block;
+import static org.ebml.ElementBytes.concat;
+import static org.ebml.ElementBytes.element;
+import static org.ebml.ElementBytes.string;
+import static org.ebml.ElementBytes.uint;
+import static org.ebml.ElementBytes.unknownSize;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.ebml.matroska.MatroskaDocTypes;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EBMLParserTest
+{
+  /**
+   * An element of a type that isn't registered
+   */
+  private static final byte[] UNKNOWN_ID = {0x1E, 0x7F, (byte) 0xFF, (byte) 0xFE };
+
+  @Test
+  public void testChunks()
+  {
+    final byte[] stream = concat(element(MatroskaDocTypes.EBML, string(MatroskaDocTypes.DocType, "matroska")),
+                                 element(MatroskaDocTypes.Segment,
+                                         element(MatroskaDocTypes.Info, uint(MatroskaDocTypes.TimecodeScale, 1000000)),
+                                         // Skipped, both as an unknown type and as a master the handler doesn't want, over many chunks
+                                         concat(UNKNOWN_ID, Element.makeEbmlCodedSize(300), new byte[300]),
+                                         element(MatroskaDocTypes.Tags, element(MatroskaDocTypes.Void, new byte[200])),
+                                         element(MatroskaDocTypes.Cluster,
+                                                 uint(MatroskaDocTypes.Timecode, 1000),
+                                                 element(MatroskaDocTypes.SimpleBlock, block(1, 0, true, new byte[1000])),
+                                                 // Empty, so it ends along with its parents
+                                                 element(MatroskaDocTypes.BlockGroup))));
+    final List<String> expected = Arrays.asList("start EBML",
+                                                "DocType 8",
+                                                "end EBML 11",
+                                                "start Segment",
+                                                "start Info",
+                                                "TimecodeScale 3",
+                                                "end Info 7",
+                                                "start Tags",
+                                                "start Cluster",
+                                                "Timecode 2",
+                                                "SimpleBlock 1004",
+                                                "start BlockGroup",
+                                                "end BlockGroup 0",
+                                                "end Cluster 1013",
+                                                "end Segment " + (stream.length - 16 - 6));
+
+    // The same elements whatever the chunks, down to single bytes that split every ID, size and value
+    for (final int chunkSize: new int[] {1, 2, 3, 7, 64, stream.length })
+    {
+      final Recorder recorder = new Recorder();
+      final EBMLParser parser = new EBMLParser(recorder);
+      feed(parser, stream, 0, stream.length, chunkSize);
+      Assert.assertEquals("Chunks of " + chunkSize, expected, recorder.events);
+      Assert.assertEquals(stream.length, parser.getPosition());
+      Assert.assertEquals(0, parser.getDepth());
+      parser.finish();
+      Assert.assertEquals(expected, recorder.events);
+    }
+  }
+
+  @Test
+  public void testUnknownSizes()
+  {
+    final byte[] first = concat(uint(MatroskaDocTypes.Timecode, 500), element(MatroskaDocTypes.Void, new byte[2]));
+    final byte[] group = element(MatroskaDocTypes.Block, block(1, 0, false, new byte[] {1 }));
+    final byte[] second = concat(uint(MatroskaDocTypes.Timecode, 1000), unknownSize(MatroskaDocTypes.BlockGroup, 8, group));
+    final byte[] stream = unknownSize(MatroskaDocTypes.Segment,
+                                      1,
+                                      unknownSize(MatroskaDocTypes.Cluster, 1, first),
+                                      unknownSize(MatroskaDocTypes.Cluster, 4, second),
+                                      element(MatroskaDocTypes.Cues));
+    final List<String> expected = Arrays.asList("start Segment",
+                                                "start Cluster",
+                                                "Timecode 2",
+                                                "Void 2",
+                                                // Ended by the next Cluster, a sibling
+                                                "end Cluster " + first.length,
+                                                "start Cluster",
+                                                "Timecode 2",
+                                                "start BlockGroup",
+                                                "Block 5",
+                                                // Both ended by the Cues, a child of their grandparent
+                                                "end BlockGroup " + group.length,
+                                                "end Cluster " + second.length,
+                                                "start Cues",
+                                                "end Cues 0");
+
+    for (final int chunkSize: new int[] {1, 5, stream.length })
+    {
+      final Recorder recorder = new Recorder();
+      final EBMLParser parser = new EBMLParser(recorder);
+      feed(parser, stream, 0, stream.length, chunkSize);
+      // Nothing tells where the Segment ends but the end of the stream
+      Assert.assertEquals(expected, recorder.events);
+      Assert.assertEquals(1, parser.getDepth());
+      parser.finish();
+      Assert.assertEquals("end Segment " + (stream.length - 5), recorder.events.get(recorder.events.size() - 1));
+      Assert.assertEquals(0, parser.getDepth());
+    }
+  }
+
+  @Test
+  public void testUnknownSizeInKnownSize()
+  {
+    final byte[] clusterData = concat(uint(MatroskaDocTypes.Timecode, 1000), element(MatroskaDocTypes.BlockGroup));
+    final byte[] first = element(MatroskaDocTypes.Segment, unknownSize(MatroskaDocTypes.Cluster, 1, clusterData));
+    final byte[] second = element(MatroskaDocTypes.Segment, element(MatroskaDocTypes.Info, uint(MatroskaDocTypes.TimecodeScale, 1000000)));
+    // A Void could be a child of the Cluster, and a Segment can't end it without ending the first Segment too
+    final byte[] stream = concat(first, element(MatroskaDocTypes.Void, new byte[2]), second);
+    final List<String> expected = Arrays.asList("start Segment",
+                                                "start Cluster",
+                                                "Timecode 2",
+                                                "start BlockGroup",
+                                                "end BlockGroup 0",
+                                                // Both ended by the end of the first Segment
+                                                "end Cluster " + clusterData.length,
+                                                "end Segment " + (first.length - 5),
+                                                "Void 2",
+                                                "start Segment",
+                                                "start Info",
+                                                "TimecodeScale 3",
+                                                "end Info 7",
+                                                "end Segment " + (second.length - 5));
+
+    for (final int chunkSize: new int[] {1, 4, stream.length })
+    {
+      final Recorder recorder = new Recorder();
+      final EBMLParser parser = new EBMLParser(recorder);
+      feed(parser, stream, 0, stream.length, chunkSize);
+      Assert.assertEquals("Chunks of " + chunkSize, expected, recorder.events);
+      Assert.assertEquals(0, parser.getDepth());
+    }
+  }
+
+  @Test
+  public void testTruncated()
+  {
+    final byte[] cluster = element(MatroskaDocTypes.Cluster,
+                                   uint(MatroskaDocTypes.Timecode, 1000),
+                                   element(MatroskaDocTypes.SimpleBlock, block(1, 0, true, new byte[100])));
+    final byte[] stream = element(MatroskaDocTypes.Segment, cluster);
+
+    // The stream ends inside the block, which is never reported, while the open masters are ended
+    final Recorder recorder = new Recorder();
+    final EBMLParser parser = new EBMLParser(recorder);
+    feed(parser, stream, 0, stream.length - 10, 3);
+    Assert.assertEquals(2, parser.getDepth());
+    parser.finish();
+    Assert.assertEquals(Arrays.asList("start Segment", "start Cluster", "Timecode 2", "end Cluster " + (cluster.length - 5),
+                                      "end Segment " + cluster.length), recorder.events);
+    Assert.assertEquals(0, parser.getDepth());
+
+    // Ending inside an ID, the next stream starts afresh
+    final Recorder next = new Recorder();
+    final EBMLParser restarted = new EBMLParser(next);
+    feed(restarted, stream, 0, 3, 1);
+    restarted.finish();
+    Assert.assertEquals(0, next.events.size());
+    feed(restarted, stream, 0, stream.length, 1);
+    Assert.assertEquals(Arrays.asList("start Segment", "start Cluster", "Timecode 2", "SimpleBlock 104", "end Cluster " + (cluster.length - 5),
+                                      "end Segment " + cluster.length), next.events);
+  }
+
+  private static void feed(final EBMLParser parser, final byte[] stream, final int start, final int end, final int chunkSize)
+  {
+    for (int offset = start; offset < end; offset += chunkSize)
+    {
+      final ByteBuffer chunk = ByteBuffer.wrap(stream, offset, Math.min(chunkSize, end - offset));
+      parser.feed(chunk);
+      Assert.assertEquals(false, chunk.hasRemaining());
+    }
+  }
+
+  /**
+   * Writes down every call, with the size of the elements, and skips the Tags
+   */
+  private static class Recorder implements EBMLParser.Handler
+  {
+    private final List<String> events = new ArrayList<>();
+
+    @Override
+    public boolean startMaster(final MasterElement element)
+    {
+      events.add("start " + element.getElementType().getName());
+      return !element.isType(MatroskaDocTypes.Tags.getType());
+    }
+
+    @Override
+    public void endMaster(final MasterElement element)
+    {
+      Assert.assertEquals(false, element.isUnknownSize());
+      events.add("end " + element.getElementType().getName() + " " + element.getSize());
+    }
+
+    @Override
+    public void element(final Element element)
+    {
+      Assert.assertEquals(element.getSize(), element.getData().remaining());
+      events.add(element.getElementType().getName() + " " + element.getSize());
+    }
+  }
+}
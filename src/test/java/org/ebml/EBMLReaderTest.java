@@ -0,0 +1,389 @@
+package org.ebml;
+
+import static org.ebml.ElementBytes.block;
+import static org.ebml.ElementBytes.concat;
+import static org.ebml.ElementBytes.element;
+import static org.ebml.ElementBytes.string;
+import static org.ebml.ElementBytes.uint;
+import static org.ebml.ElementBytes.unknownSize;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.ebml.io.FileDataSource;
+import org.ebml.matroska.MatroskaDocTypes;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EBMLReaderTest
+{
+  /**
+   * An element of a type that isn't registered
+   */
+  private static final byte[] UNKNOWN_ID = {0x1E, 0x7F, (byte) 0xFF, (byte) 0xFE };
+
+  @Test
+  public void testUnknownSizeEndedBySibling()
+  {
+    // As written by live muxers: a Segment and Clusters of unknown size, with size fields of different lengths, then Cues of known size
+    final byte[] first = concat(uint(MatroskaDocTypes.Timecode, 0), simpleBlock(1));
+    final byte[] second = concat(uint(MatroskaDocTypes.Timecode, 1000), element(MatroskaDocTypes.Void, new byte[3]), simpleBlock(2));
+    final byte[] cues = element(MatroskaDocTypes.Cues);
+    final byte[] segmentData = concat(unknownSize(MatroskaDocTypes.Cluster, 1, first), unknownSize(MatroskaDocTypes.Cluster, 8, second), cues);
+    final MockSource source = new MockSource(ByteBuffer.wrap(unknownSize(MatroskaDocTypes.Segment, 1, segmentData)));
+    final EBMLReader reader = new EBMLReader(source);
+
+    final MasterElement segment = (MasterElement) reader.readNextElement();
+    Assert.assertEquals(true, segment.isUnknownSize());
+
+    final MasterElement cluster = (MasterElement) segment.readNextChild(reader);
+    Assert.assertEquals(true, cluster.isUnknownSize());
+    Assert.assertEquals(0, readTimecode(cluster, reader, source));
+    final Element block = cluster.readNextChild(reader);
+    Assert.assertEquals(true, block.isType(MatroskaDocTypes.SimpleBlock.getType()));
+    block.skipData(source);
+    // The next Cluster can't be a child, so it ends this one, which now knows its size
+    Assert.assertEquals(null, cluster.readNextChild(reader));
+    Assert.assertEquals(false, cluster.isUnknownSize());
+    Assert.assertEquals(first.length, cluster.getSize());
+
+    // Its header has been read already, and is handed to the Segment
+    final MasterElement next = (MasterElement) segment.readNextChild(reader);
+    Assert.assertEquals(true, next.isType(MatroskaDocTypes.Cluster.getType()));
+    Assert.assertEquals(true, next.isUnknownSize());
+    Assert.assertEquals(0xFFFFFFFFFFFFFFL, next.getSize());
+    Assert.assertEquals(1000, readTimecode(next, reader, source));
+    // A global element doesn't end it
+    next.readNextChild(reader).skipData(source);
+    next.readNextChild(reader).skipData(source);
+    Assert.assertEquals(null, next.readNextChild(reader));
+    Assert.assertEquals(second.length, next.getSize());
+
+    final Element last = segment.readNextChild(reader);
+    Assert.assertEquals(true, last.isType(MatroskaDocTypes.Cues.getType()));
+    Assert.assertEquals(false, last.isUnknownSize());
+    // The end of the source ends the Segment
+    Assert.assertEquals(null, segment.readNextChild(reader));
+    Assert.assertEquals(false, segment.isUnknownSize());
+    Assert.assertEquals(segmentData.length, segment.getSize());
+    Assert.assertEquals(segmentData.length, segment.getUsedSize());
+  }
+
+  @Test
+  public void testUnknownSizeEndedByHigherLevel()
+  {
+    // A following EBML header, level 0, ends the BlockGroup, the Cluster and the Segment at once
+    final byte[] group = element(MatroskaDocTypes.Block, block(1, 0, true, new byte[] {1 }));
+    final byte[] clusterData = concat(uint(MatroskaDocTypes.Timecode, 0), unknownSize(MatroskaDocTypes.BlockGroup, 1, group));
+    final byte[] segmentData = unknownSize(MatroskaDocTypes.Cluster, 1, clusterData);
+    final MockSource source = new MockSource(ByteBuffer.wrap(concat(unknownSize(MatroskaDocTypes.Segment, 1, segmentData),
+                                                                     element(MatroskaDocTypes.EBML))));
+    final EBMLReader reader = new EBMLReader(source);
+
+    final MasterElement segment = (MasterElement) reader.readNextElement();
+    final MasterElement cluster = (MasterElement) segment.readNextChild(reader);
+    Assert.assertEquals(0, readTimecode(cluster, reader, source));
+    final MasterElement blockGroup = (MasterElement) cluster.readNextChild(reader);
+    Assert.assertEquals(true, blockGroup.isUnknownSize());
+    blockGroup.readNextChild(reader).skipData(source);
+    Assert.assertEquals(null, blockGroup.readNextChild(reader));
+    Assert.assertEquals(group.length, blockGroup.getSize());
+    Assert.assertEquals(null, cluster.readNextChild(reader));
+    Assert.assertEquals(clusterData.length, cluster.getSize());
+    Assert.assertEquals(null, segment.readNextChild(reader));
+    Assert.assertEquals(segmentData.length, segment.getSize());
+    // The EBML header was read to find the end, and nothing else
+    Assert.assertEquals(segmentData.length + 5 + 5, source.getFilePointer());
+  }
+
+  @Test
+  public void testSkipUnknownSize()
+  {
+    final byte[] first = concat(uint(MatroskaDocTypes.Timecode, 0),
+                                unknownSize(MatroskaDocTypes.BlockGroup, 2, element(MatroskaDocTypes.Block, new byte[4])),
+                                simpleBlock(2));
+    final byte[] segmentData = concat(unknownSize(MatroskaDocTypes.Cluster, 4, first),
+                                      unknownSize(MatroskaDocTypes.Cluster, 1, uint(MatroskaDocTypes.Timecode, 1000)));
+    final MockSource source = new MockSource(ByteBuffer.wrap(element(MatroskaDocTypes.Segment, segmentData)));
+    final EBMLReader reader = new EBMLReader(source);
+
+    final MasterElement segment = (MasterElement) reader.readNextElement();
+    Assert.assertEquals(false, segment.isUnknownSize());
+    // Skipping goes through the children, down into those of unknown size too
+    final Element cluster = segment.readNextChild(reader);
+    cluster.skipData(source);
+    Assert.assertEquals(first.length, cluster.getSize());
+    final MasterElement next = (MasterElement) segment.readNextChild(reader);
+    Assert.assertEquals(true, next.isType(MatroskaDocTypes.Cluster.getType()));
+    Assert.assertEquals(1000, readTimecode(next, reader, source));
+    // The end of the data ends it
+    Assert.assertEquals(null, next.readNextChild(reader));
+    Assert.assertEquals(null, segment.readNextChild(reader));
+    Assert.assertEquals(segmentData.length, segment.getUsedSize());
+  }
+
+  @Test
+  public void testElementHandler()
+  {
+    final byte[] info = element(MatroskaDocTypes.Info,
+                                uint(MatroskaDocTypes.TimecodeScale, 1000000),
+                                element(MatroskaDocTypes.Duration, ByteBuffer.allocate(4).putFloat(1.5f).array()),
+                                element(MatroskaDocTypes.DateUTC, ByteBuffer.allocate(8).putLong(-1000).array()),
+                                string(MatroskaDocTypes.Title, "t\u00e9st"));
+    final byte[] group = concat(element(MatroskaDocTypes.Block, new byte[5]), element(MatroskaDocTypes.ReferenceBlock, new byte[] {-10 }));
+    final byte[] cues = element(MatroskaDocTypes.Cues, element(MatroskaDocTypes.CuePoint, uint(MatroskaDocTypes.CueTime, 2)));
+    final byte[] segmentData = concat(info,
+                                      concat(UNKNOWN_ID, Element.makeEbmlCodedSize(3), new byte[] {1, 2, 3 }),
+                                      element(MatroskaDocTypes.Tags, string(MatroskaDocTypes.Title, "skipped")),
+                                      // Ended by the Cues
+                                      unknownSize(MatroskaDocTypes.Cluster,
+                                                  1,
+                                                  uint(MatroskaDocTypes.Timecode, 1000),
+                                                  element(MatroskaDocTypes.SimpleBlock, new byte[3]),
+                                                  element(MatroskaDocTypes.BlockGroup, group)),
+                                      cues);
+    final byte[] stream = concat(element(MatroskaDocTypes.EBML, string(MatroskaDocTypes.DocType, "matroska")),
+                                 element(MatroskaDocTypes.Segment, segmentData));
+    final Recorder recorder = new Recorder();
+    new EBMLReader(new MockSource(ByteBuffer.wrap(stream))).readElements(recorder);
+
+    Assert.assertEquals(Arrays.asList("start EBML 11",
+                                      "start DocType 8",
+                                      "DocType=matroska",
+                                      "end EBML",
+                                      "start Segment " + segmentData.length,
+                                      "start Info " + (info.length - 5),
+                                      "start TimecodeScale 3",
+                                      "TimecodeScale=1000000",
+                                      "start Duration 4",
+                                      "Duration=1.5",
+                                      // Dates are signed integers
+                                      "start DateUTC 8",
+                                      "DateUTC=-1000",
+                                      "start Title 5",
+                                      "Title=t\u00e9st",
+                                      "end Info",
+                                      // Unknown types are read as binary, whatever the handler asks for
+                                      "start 1E7FFFFE 3",
+                                      "1E7FFFFE[3]",
+                                      // Nothing of what is skipped is read
+                                      "start Tags 10",
+                                      // Masters of unknown size are descended into even when skipped
+                                      "start Cluster -1",
+                                      "start Timecode 2",
+                                      "Timecode=1000",
+                                      "start SimpleBlock 3",
+                                      "start BlockGroup " + group.length,
+                                      "start Block 5",
+                                      "Block[5]",
+                                      "start ReferenceBlock 1",
+                                      "ReferenceBlock=-10",
+                                      "end BlockGroup",
+                                      "end Cluster",
+                                      // Read whole as binary
+                                      "start Cues " + (cues.length - 5),
+                                      "Cues[" + (cues.length - 5) + "]",
+                                      "end Segment"),
+                        recorder.events);
+    Assert.assertEquals(stream.length - cues.length, recorder.cuesOffset);
+  }
+
+  @Test
+  public void testUnknownSizeEndedByKnownSizeParent()
+  {
+    final byte[] cluster = unknownSize(MatroskaDocTypes.Cluster, 1, uint(MatroskaDocTypes.Timecode, 1000), element(MatroskaDocTypes.BlockGroup));
+    final byte[] first = element(MatroskaDocTypes.Segment, cluster);
+    final byte[] second = element(MatroskaDocTypes.Segment, element(MatroskaDocTypes.Info, uint(MatroskaDocTypes.TimecodeScale, 1000000)));
+    // A Void could be a child of the Cluster, only the end of the first Segment ends it
+    final byte[] stream = concat(first, element(MatroskaDocTypes.Void, new byte[2]), second, second);
+    final Recorder recorder = new Recorder();
+    new EBMLReader(new MockSource(ByteBuffer.wrap(stream))).readElements(recorder);
+
+    final List<String> segment = Arrays.asList("start Segment " + (second.length - 5),
+                                               "start Info 7",
+                                               "start TimecodeScale 3",
+                                               "TimecodeScale=1000000",
+                                               "end Info",
+                                               "end Segment");
+    final List<String> expected = new ArrayList<>(Arrays.asList("start Segment " + cluster.length,
+                                                                "start Cluster -1",
+                                                                "start Timecode 2",
+                                                                "Timecode=1000",
+                                                                "start BlockGroup 0",
+                                                                "end BlockGroup",
+                                                                "end Cluster",
+                                                                "end Segment",
+                                                                "start Void 2",
+                                                                "Void[2]"));
+    expected.addAll(segment);
+    expected.addAll(segment);
+    Assert.assertEquals(expected, recorder.events);
+
+    // The next Segment right after the Cluster, left pending by it, is not taken for a child of the first
+    final Recorder next = new Recorder();
+    new EBMLReader(new MockSource(ByteBuffer.wrap(concat(first, second)))).readElements(next);
+    expected.subList(8, 10).clear();
+    expected.subList(8 + segment.size(), expected.size()).clear();
+    Assert.assertEquals(expected, next.events);
+  }
+
+  @Test
+  public void testLazyData() throws Exception
+  {
+    final byte[] payload = new byte[50];
+    for (int i = 0; i < payload.length; i++)
+    {
+      payload[i] = (byte) i;
+    }
+    final byte[] stream = concat(element(MatroskaDocTypes.SimpleBlock, payload),
+                                 element(MatroskaDocTypes.SimpleBlock),
+                                 uint(MatroskaDocTypes.Timecode, 7));
+    final File file = File.createTempFile("test", ".ebml");
+    try
+    {
+      Files.write(file.toPath(), stream);
+      try (FileDataSource source = new FileDataSource(file.getPath()))
+      {
+        final EBMLReader reader = new EBMLReader(source);
+        final Element block = reader.readNextElement();
+        block.readDataLazily(source);
+        Assert.assertEquals(false, block.isDataLoaded());
+        final Element empty = reader.readNextElement();
+        empty.readDataLazily(source);
+        final long position = source.getFilePointer();
+
+        // Passed on by the file channel, without being loaded or moving the source
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assert.assertEquals(payload.length, block.transferTo(Channels.newChannel(out)));
+        Assert.assertArrayEquals(payload, out.toByteArray());
+        Assert.assertEquals(false, block.isDataLoaded());
+        Assert.assertEquals(0, empty.transferTo(Channels.newChannel(out)));
+        Assert.assertEquals(position, source.getFilePointer());
+
+        // Loaded when needed, leaving the source where it was, so reading carries on
+        Assert.assertEquals(ByteBuffer.wrap(payload), block.getData());
+        Assert.assertEquals(true, block.isDataLoaded());
+        Assert.assertEquals(0, empty.getData().remaining());
+        Assert.assertEquals(position, source.getFilePointer());
+        final Element timecode = reader.readNextElement();
+        timecode.readData(source);
+        Assert.assertEquals(7, ((UnsignedIntegerElement) timecode).getValue());
+      }
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testLazyDataNotSeekable() throws Exception
+  {
+    final byte[] payload = {1, 2, 3 };
+    final byte[] stream = concat(element(MatroskaDocTypes.SimpleBlock, payload), uint(MatroskaDocTypes.Timecode, 7));
+    final MockSource source = new MockSource(ByteBuffer.wrap(stream))
+    {
+      @Override
+      public boolean isSeekable()
+      {
+        return false;
+      }
+    };
+    final EBMLReader reader = new EBMLReader(source);
+    final Element block = reader.readNextElement();
+    // It couldn't come back for the data, so it is read now
+    block.readDataLazily(source);
+    Assert.assertEquals(true, block.isDataLoaded());
+    Assert.assertEquals(ByteBuffer.wrap(payload), block.getData());
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Assert.assertEquals(payload.length, block.transferTo(Channels.newChannel(out)));
+    Assert.assertArrayEquals(payload, out.toByteArray());
+    Assert.assertEquals(true, reader.readNextElement().isType(MatroskaDocTypes.Timecode.getType()));
+  }
+
+  private static long readTimecode(final MasterElement cluster, final EBMLReader reader, final MockSource source)
+  {
+    final Element timecode = cluster.readNextChild(reader);
+    timecode.readData(source);
+    return ((UnsignedIntegerElement) timecode).getValue();
+  }
+
+  private static byte[] simpleBlock(final int frame)
+  {
+    return element(MatroskaDocTypes.SimpleBlock, block(1, 0, true, new byte[] {(byte) frame }));
+  }
+
+  /**
+   * Writes down every call, skips the Tags and SimpleBlocks and reads the Cues whole
+   */
+  private static class Recorder implements EBMLReader.ElementHandler
+  {
+    private final List<String> events = new ArrayList<>();
+    private long cuesOffset = -1;
+
+    @Override
+    public EBMLReader.Action startElement(final long id, final long size, final long offset)
+    {
+      events.add("start " + name(id) + " " + size);
+      if (id == EBMLReader.parseEBMLCode(MatroskaDocTypes.Cues.getType()))
+      {
+        cuesOffset = offset;
+        return EBMLReader.Action.READ;
+      }
+      if (id == EBMLReader.parseEBMLCode(MatroskaDocTypes.Tags.getType()) || id == EBMLReader.parseEBMLCode(MatroskaDocTypes.SimpleBlock.getType())
+          || id == EBMLReader.parseEBMLCode(MatroskaDocTypes.Cluster.getType()))
+      {
+        return EBMLReader.Action.SKIP;
+      }
+      return EBMLReader.Action.DESCEND;
+    }
+
+    @Override
+    public void endElement(final long id)
+    {
+      events.add("end " + name(id));
+    }
+
+    @Override
+    public void unsignedInteger(final long id, final long value)
+    {
+      events.add(name(id) + "=" + value);
+    }
+
+    @Override
+    public void signedInteger(final long id, final long value)
+    {
+      events.add(name(id) + "=" + value);
+    }
+
+    @Override
+    public void floatValue(final long id, final double value)
+    {
+      events.add(name(id) + "=" + value);
+    }
+
+    @Override
+    public void string(final long id, final String value)
+    {
+      events.add(name(id) + "=" + value);
+    }
+
+    @Override
+    public void binary(final long id, final ByteBuffer value)
+    {
+      events.add(name(id) + "[" + value.remaining() + "]");
+    }
+
+    private static String name(final long id)
+    {
+      final ProtoType<?> type = ProtoType.getProtoType(id);
+      return type == null ? Long.toHexString(id).toUpperCase() : type.getName();
+    }
+  }
+}
@@ -0,0 +1,156 @@
+package org.ebml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+
+import org.ebml.io.ChannelDataWriter;
+import org.ebml.io.DataWriter;
+import org.ebml.io.FileDataWriter;
+import org.ebml.matroska.MatroskaDocTypes;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EBMLWriterTest
+{
+  private File file;
+
+  @Before
+  public void setUp() throws Exception
+  {
+    file = File.createTempFile("test", ".ebml");
+  }
+
+  @After
+  public void tearDown() throws Exception
+  {
+    file.delete();
+  }
+
+  @Test
+  public void testPatchedSizes() throws Exception
+  {
+    try (FileDataWriter out = new FileDataWriter(file.getPath()))
+    {
+      writeNested(out);
+    }
+    final byte[] bytes = Files.readAllBytes(file.toPath());
+    // Each size is patched in the 8 bytes reserved for it: the Segment holds everything after its header
+    assertSize(bytes, 4, 31);
+    // The Info holds a 7 byte TimecodeScale
+    assertSize(bytes, 16, 7);
+    assertSize(bytes, 35, 0);
+    // The element after the Segment is untouched
+    Assert.assertEquals((byte) 0xE7, bytes[43]);
+
+    // What is read back matches
+    final EBMLReader reader = new EBMLReader(new MockSource(ByteBuffer.wrap(bytes)));
+    final Element segment = reader.readNextElement();
+    Assert.assertEquals(false, segment.isUnknownSize());
+    Assert.assertEquals(31, segment.getSize());
+    final Element info = ((MasterElement) segment).readNextChild(reader);
+    Assert.assertEquals(7, info.getSize());
+  }
+
+  @Test
+  public void testUnknownSizes() throws Exception
+  {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writeNested(new ChannelDataWriter(Channels.newChannel(out)));
+    final byte[] bytes = out.toByteArray();
+    // Left as written, all ones
+    for (final int position: new int[] {4, 16, 35 })
+    {
+      Assert.assertEquals((byte) 0x01, bytes[position]);
+      for (int i = 1; i < 8; i++)
+      {
+        Assert.assertEquals((byte) 0xFF, bytes[position + i]);
+      }
+    }
+
+    final EBMLReader reader = new EBMLReader(new MockSource(ByteBuffer.wrap(bytes)));
+    final Element segment = reader.readNextElement();
+    Assert.assertEquals(true, segment.isUnknownSize());
+    final Element info = ((MasterElement) segment).readNextChild(reader);
+    Assert.assertEquals(true, info.isUnknownSize());
+    final Element scale = ((MasterElement) info).readNextChild(reader);
+    scale.readData(reader.source);
+    Assert.assertEquals(1000000, ((UnsignedIntegerElement) scale).getValue());
+    // The Cluster can't be a child of the Info, so it ends it
+    Assert.assertEquals(null, ((MasterElement) info).readNextChild(reader));
+    Assert.assertEquals(7, info.getSize());
+  }
+
+  @Test
+  public void testShortSize() throws Exception
+  {
+    try (FileDataWriter out = new FileDataWriter(file.getPath()))
+    {
+      final EBMLWriter writer = new EBMLWriter(out);
+      writer.startMaster(MatroskaDocTypes.Info.getType(), 1);
+      writer.writeElement(scale());
+      Assert.assertEquals(7, writer.endMaster());
+
+      // 127 is all ones in one byte, which means unknown
+      writer.startMaster(MatroskaDocTypes.Tags.getType(), 1);
+      final BinaryElement filler = MatroskaDocTypes.Void.getInstance();
+      filler.setData(ByteBuffer.allocate(125));
+      writer.writeElement(filler);
+      try
+      {
+        writer.endMaster();
+        Assert.fail("A size of 127 does not fit in one byte");
+      }
+      catch (final IllegalStateException ex)
+      {
+        // expected
+      }
+    }
+    Assert.assertEquals((byte) 0x87, Files.readAllBytes(file.toPath())[4]);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testEndWithoutStart()
+  {
+    new EBMLWriter(new MockWriter()).endMaster();
+  }
+
+  /**
+   * Writes a Segment holding an Info with a TimecodeScale and an empty Cluster, followed by a Timecode
+   */
+  private static void writeNested(final DataWriter out)
+  {
+    final EBMLWriter writer = new EBMLWriter(out);
+    writer.startMaster(MatroskaDocTypes.Segment.getType());
+    writer.startMaster(MatroskaDocTypes.Info.getType());
+    writer.writeElement(scale());
+    Assert.assertEquals(7, writer.endMaster());
+    writer.startMaster(MatroskaDocTypes.Cluster.getType());
+    Assert.assertEquals(2, writer.getDepth());
+    Assert.assertEquals(0, writer.endMaster());
+    Assert.assertEquals(31, writer.endMaster());
+    Assert.assertEquals(0, writer.getDepth());
+    // Something after the Segment, which must not be overwritten by the patching
+    final UnsignedIntegerElement timecode = MatroskaDocTypes.Timecode.getInstance();
+    timecode.setValue(0);
+    writer.writeElement(timecode);
+  }
+
+  private static UnsignedIntegerElement scale()
+  {
+    final UnsignedIntegerElement scale = MatroskaDocTypes.TimecodeScale.getInstance();
+    scale.setValue(1000000);
+    return scale;
+  }
+
+  private static void assertSize(final byte[] bytes, final int position, final long size)
+  {
+    final ByteBuffer code = ByteBuffer.wrap(bytes, position, 8);
+    Assert.assertEquals(8, EBMLReader.readEBMLCodeSize(code.get(position)));
+    Assert.assertEquals(size, EBMLReader.readEBMLCode(code));
+  }
+}
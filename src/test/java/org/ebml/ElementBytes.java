@@ -0,0 +1,75 @@
+package org.ebml;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Builds EBML by hand, for tests of data that the writers here would never produce, e.g. from other muxers.
+ */
+public final class ElementBytes
+{
+  private ElementBytes()
+  {
+  }
+
+  public static byte[] element(final ProtoType<?> type, final byte[]... children)
+  {
+    final byte[] data = concat(children);
+    return concat(id(type), Element.makeEbmlCodedSize(data.length), data);
+  }
+
+  /**
+   * A master whose size is written as unknown, all ones, in <code>sizeLength</code> bytes
+   */
+  public static byte[] unknownSize(final ProtoType<?> type, final int sizeLength, final byte[]... children)
+  {
+    final byte[] size = new byte[sizeLength];
+    size[0] = (byte) (0xFF >>> (sizeLength - 1));
+    for (int i = 1; i < sizeLength; i++)
+    {
+      size[i] = (byte) 0xFF;
+    }
+    return concat(id(type), size, concat(children));
+  }
+
+  public static byte[] uint(final ProtoType<?> type, final long value)
+  {
+    return element(type, Element.packIntUnsigned(value));
+  }
+
+  public static byte[] string(final ProtoType<?> type, final String value)
+  {
+    return element(type, value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * The data of a SimpleBlock or Block holding one frame, without lacing
+   *
+   * @param timecode Offset from the cluster timecode
+   */
+  public static byte[] block(final int trackNo, final int timecode, final boolean keyFrame, final byte[] frame)
+  {
+    final byte[] trackNumber = Element.makeEbmlCodedSize(trackNo);
+    final byte[] head = new byte[] {(byte) (timecode >> 8), (byte) timecode, (byte) (keyFrame ? 0x80 : 0) };
+    return concat(trackNumber, head, frame);
+  }
+
+  public static byte[] concat(final byte[]... parts)
+  {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (final byte[] part: parts)
+    {
+      out.write(part, 0, part.length);
+    }
+    return out.toByteArray();
+  }
+
+  private static byte[] id(final ProtoType<?> type)
+  {
+    final ByteBuffer id = type.getType().duplicate();
+    final byte[] bytes = new byte[id.remaining()];
+    id.get(bytes);
+    return bytes;
+  }
+}
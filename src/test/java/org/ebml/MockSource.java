@@ -45,7 +45,8 @@ public class MockSource implements DataSource
   @Override
   public byte readByte()
   {
-    return buffer.get();
+    // Like the file sources, which read 0 past the end
+    return buffer.hasRemaining() ? buffer.get() : 0;
   }
 
   @Override
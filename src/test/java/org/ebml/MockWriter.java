@@ -53,6 +53,18 @@ public class MockWriter implements DataWriter
     return buff.remaining();
   }
 
+  @Override
+  public long write(final ByteBuffer[] buffs)
+  {
+    long len = 0;
+    for (final ByteBuffer b: buffs)
+    {
+      len += b.remaining();
+      this.buff.put(b);
+    }
+    return len;
+  }
+
   public ByteBuffer getBuff()
   {
     return buff;
@@ -0,0 +1,72 @@
+package org.ebml;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+import org.ebml.matroska.MatroskaDocTypes;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ProtoTypeTest
+{
+  @Test
+  public void testLookup() throws Exception
+  {
+    // Over two hundred types, so the table has grown well past its initial size
+    int count = 0;
+    for (final Field field: MatroskaDocTypes.class.getFields())
+    {
+      if (Modifier.isStatic(field.getModifiers()) && field.getType() == ProtoType.class)
+      {
+        final ProtoType<?> type = (ProtoType<?>) field.get(null);
+        final long id = EBMLReader.parseEBMLCode(type.getType());
+        Assert.assertSame(type.getName(), type, ProtoType.getProtoType(id));
+        final Element elem = ProtoType.getInstance(id);
+        Assert.assertSame(type, elem.getElementType());
+        Assert.assertTrue(type.clazz.isInstance(elem));
+        count++;
+      }
+    }
+    Assert.assertTrue(count > 64);
+  }
+
+  @Test
+  public void testGrowth()
+  {
+    // IDs that only differ in their low bits, which must not all land in the same slot
+    final ProtoType<?>[] types = new ProtoType<?>[300];
+    for (int i = 0; i < types.length; i++)
+    {
+      types[i] = new ProtoType<>(BinaryElement.class, "test" + i, new byte[] {0x1E, 0x40, (byte) (i >> 8), (byte) i }, 1);
+    }
+    for (int i = 0; i < types.length; i++)
+    {
+      Assert.assertSame(types[i], ProtoType.getProtoType(0x1E400000 | i));
+    }
+    Assert.assertSame(MatroskaDocTypes.Cluster, ProtoType.getProtoType(0x1F43B675));
+  }
+
+  @Test
+  public void testReplace()
+  {
+    final ProtoType<BinaryElement> first = new ProtoType<>(BinaryElement.class, "first", new byte[] {0x1E, 0x7F, 0x00, 0x01 }, 1);
+    Assert.assertSame(first, ProtoType.getProtoType(0x1E7F0001));
+    final ProtoType<UnsignedIntegerElement> second = new ProtoType<>(UnsignedIntegerElement.class, "second", new byte[] {0x1E, 0x7F, 0x00, 0x01 }, 2);
+    Assert.assertSame(second, ProtoType.getProtoType(0x1E7F0001));
+    Assert.assertTrue(ProtoType.getInstance(0x1E7F0001) instanceof UnsignedIntegerElement);
+  }
+
+  @Test
+  public void testUnknownIds()
+  {
+    Assert.assertNull(ProtoType.getProtoType(0x1E7FFFFF));
+    Assert.assertNull(ProtoType.getInstance(0x1E7FFFFF));
+    Assert.assertNull(ProtoType.getProtoType(0));
+    Assert.assertNull(ProtoType.getProtoType(-1));
+
+    // IDs longer than 4 bytes can't be registered, nor read
+    new ProtoType<>(BinaryElement.class, "long", new byte[] {0x08, 0x12, 0x34, 0x56, 0x78 }, 1);
+    Assert.assertNull(ProtoType.getProtoType(0x0812345678L));
+    Assert.assertNull(ProtoType.getProtoType(0x12345678));
+  }
+}
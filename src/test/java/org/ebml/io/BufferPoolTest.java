@@ -0,0 +1,42 @@
+package org.ebml.io;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BufferPoolTest
+{
+  @Test
+  public void testReuse()
+  {
+    final BufferPool pool = new BufferPool(4096, 2);
+    final PooledBuffer first = pool.acquire(1000);
+    Assert.assertEquals(1000, first.getBuffer().limit());
+    Assert.assertEquals(1024, first.getBuffer().capacity());
+    Assert.assertEquals(true, first.getBuffer().isDirect());
+
+    first.retain();
+    Assert.assertEquals(false, first.release());
+    Assert.assertEquals(0, pool.getFreeCount());
+    Assert.assertEquals(true, first.release());
+    Assert.assertEquals(1, pool.getFreeCount());
+
+    // A buffer of the same size class is reused
+    final PooledBuffer second = pool.acquire(600);
+    Assert.assertSame(first.getBuffer(), second.getBuffer());
+    Assert.assertEquals(600, second.getBuffer().limit());
+    Assert.assertEquals(0, second.getBuffer().position());
+    second.release();
+
+    // Buffers larger than the pool handles are not kept
+    pool.acquire(10000).release();
+    Assert.assertEquals(1, pool.getFreeCount());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testReleaseTwice()
+  {
+    final PooledBuffer buffer = new BufferPool().acquire(10);
+    buffer.release();
+    buffer.release();
+  }
+}
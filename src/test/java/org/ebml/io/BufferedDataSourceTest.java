@@ -0,0 +1,143 @@
+package org.ebml.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BufferedDataSourceTest
+{
+  private static final int FILE_SIZE = 10000;
+  private File file;
+
+  @Before
+  public void setUp() throws Exception
+  {
+    file = File.createTempFile("test", ".bin");
+    final byte[] bytes = new byte[FILE_SIZE];
+    for (int i = 0; i < bytes.length; i++)
+    {
+      bytes[i] = (byte) i;
+    }
+    try (FileOutputStream out = new FileOutputStream(file))
+    {
+      out.write(bytes);
+    }
+  }
+
+  @After
+  public void tearDown() throws Exception
+  {
+    file.delete();
+  }
+
+  @Test
+  public void testReadByte() throws Exception
+  {
+    try (BufferedDataSource source = new BufferedDataSource(new FileDataSource(file.getPath()), 64))
+    {
+      for (int i = 0; i < FILE_SIZE; i++)
+      {
+        Assert.assertEquals(i, source.getFilePointer());
+        Assert.assertEquals((byte) i, source.readByte());
+      }
+      Assert.assertEquals(FILE_SIZE, source.getFilePointer());
+    }
+  }
+
+  @Test
+  public void testReadSkipAndSeek() throws Exception
+  {
+    try (BufferedDataSource source = new BufferedDataSource(new FileDataSource(file.getPath()), 64))
+    {
+      source.readByte();
+      final ByteBuffer small = ByteBuffer.allocate(10);
+      Assert.assertEquals(10, source.read(small));
+      Assert.assertEquals((byte) 1, small.get(0));
+      Assert.assertEquals(11, source.getFilePointer());
+
+      // Seeking backwards inside the window
+      Assert.assertEquals(3, source.seek(3));
+      Assert.assertEquals((byte) 3, source.readByte());
+
+      Assert.assertEquals(20, source.skip(20));
+      Assert.assertEquals((byte) 24, source.readByte());
+
+      // Skipping past the window
+      Assert.assertEquals(1000, source.skip(1000));
+      Assert.assertEquals((byte) 1025, source.readByte());
+
+      // Reads larger than the window
+      final ByteBuffer large = ByteBuffer.allocate(500);
+      Assert.assertEquals(500, source.read(large));
+      large.flip();
+      for (int i = 0; i < 500; i++)
+      {
+        Assert.assertEquals((byte) (1026 + i), large.get());
+      }
+
+      Assert.assertEquals(5000, source.seek(5000));
+      Assert.assertEquals((byte) 5000, source.readByte());
+      Assert.assertEquals(FILE_SIZE - 10, source.seek(FILE_SIZE - 10));
+      Assert.assertEquals(10, source.read(ByteBuffer.allocate(20)));
+      Assert.assertEquals(-1, source.read(ByteBuffer.allocate(20)));
+    }
+  }
+
+  @Test
+  public void testReadSlice() throws Exception
+  {
+    try (BufferedDataSource source = new BufferedDataSource(new FileDataSource(file.getPath()), 64))
+    {
+      source.readByte();
+      source.seek(60);
+      // Only what is left of the window
+      final ByteBuffer tail = source.readSlice(10);
+      Assert.assertEquals(4, tail.remaining());
+      Assert.assertEquals(true, tail.isReadOnly());
+      final ByteBuffer next = source.readSlice(10);
+      Assert.assertEquals(10, next.remaining());
+      Assert.assertEquals(74, source.getFilePointer());
+
+      // Slices handed out are not read over by the following windows
+      source.read(ByteBuffer.allocate(200));
+      source.seek(1000);
+      source.readByte();
+      for (int i = 0; i < 4; i++)
+      {
+        Assert.assertEquals((byte) (60 + i), tail.get(i));
+      }
+      for (int i = 0; i < 10; i++)
+      {
+        Assert.assertEquals((byte) (64 + i), next.get(i));
+      }
+
+      source.seek(FILE_SIZE);
+      Assert.assertEquals(0, source.readSlice(10).remaining());
+    }
+  }
+
+  @Test
+  public void testUnread() throws Exception
+  {
+    try (BufferedDataSource source = new BufferedDataSource(new FileDataSource(file.getPath()), 64))
+    {
+      source.read(ByteBuffer.allocate(10));
+      Assert.assertEquals(true, source.unread(10));
+      Assert.assertEquals(0, source.getFilePointer());
+      Assert.assertEquals((byte) 0, source.readByte());
+
+      // Bytes from an earlier window are gone
+      source.seek(62);
+      source.read(ByteBuffer.allocate(4));
+      Assert.assertEquals(false, source.unread(4));
+      Assert.assertEquals(66, source.getFilePointer());
+      Assert.assertEquals(true, source.unread(2));
+      Assert.assertEquals((byte) 64, source.readByte());
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package org.ebml.io;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BufferedDataWriterTest
+{
+  private File file;
+
+  @Before
+  public void setUp() throws Exception
+  {
+    file = File.createTempFile("test", ".bin");
+  }
+
+  @After
+  public void tearDown() throws Exception
+  {
+    file.delete();
+  }
+
+  @Test
+  public void testWriteAndPatch() throws Exception
+  {
+    try (BufferedDataWriter writer = new BufferedDataWriter(new FileDataWriter(file.getPath()), 64))
+    {
+      for (int i = 0; i < 100; i++)
+      {
+        writer.write((byte) i);
+      }
+      Assert.assertEquals(100, writer.getFilePointer());
+
+      // Patching bytes still in the buffer
+      Assert.assertEquals(90, writer.seek(90));
+      writer.write(ByteBuffer.wrap(new byte[] {-1, -2 }));
+      Assert.assertEquals(92, writer.getFilePointer());
+
+      // Patching bytes that were already flushed
+      Assert.assertEquals(10, writer.seek(10));
+      writer.write((byte) -3);
+      Assert.assertEquals(100, writer.seek(100));
+
+      // Writes larger than the buffer, gathered with what is buffered
+      writer.write((byte) 100);
+      final byte[] large = new byte[200];
+      for (int i = 0; i < large.length; i++)
+      {
+        large[i] = (byte) (101 + i);
+      }
+      Assert.assertEquals(200, writer.write(new ByteBuffer[] {ByteBuffer.wrap(large, 0, 100), ByteBuffer.wrap(large, 100, 100) }));
+      Assert.assertEquals(301, writer.getFilePointer());
+      Assert.assertEquals(301, writer.length());
+    }
+
+    final byte[] bytes = Files.readAllBytes(file.toPath());
+    Assert.assertEquals(301, bytes.length);
+    for (int i = 0; i < bytes.length; i++)
+    {
+      final byte expected;
+      if (i == 10)
+      {
+        expected = -3;
+      }
+      else if (i == 90 || i == 91)
+      {
+        expected = (byte) (-1 - (i - 90));
+      }
+      else
+      {
+        expected = (byte) i;
+      }
+      Assert.assertEquals("Byte " + i, expected, bytes[i]);
+    }
+  }
+}
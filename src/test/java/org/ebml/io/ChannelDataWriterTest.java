@@ -0,0 +1,167 @@
+package org.ebml.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.Pipe;
+import java.nio.charset.StandardCharsets;
+
+import org.ebml.matroska.MatroskaFileFrame;
+import org.ebml.matroska.MatroskaFileTrack;
+import org.ebml.matroska.MatroskaFileTrack.TrackType;
+import org.ebml.matroska.MatroskaFileWriter;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ChannelDataWriterTest
+{
+  @Test
+  public void testWrite() throws Exception
+  {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (ChannelDataWriter writer = new ChannelDataWriter(Channels.newChannel(out)))
+    {
+      Assert.assertEquals(1, writer.write((byte) 1));
+      Assert.assertEquals(2, writer.write(ByteBuffer.wrap(new byte[] {2, 3 })));
+      // Empty buffers are passed over
+      Assert.assertEquals(3, writer.write(new ByteBuffer[] {ByteBuffer.allocate(0), ByteBuffer.wrap(new byte[] {4, 5 }), ByteBuffer.allocate(0),
+          ByteBuffer.wrap(new byte[] {6 }) }));
+      Assert.assertEquals(0, writer.write(new ByteBuffer[] {ByteBuffer.allocate(0) }));
+      Assert.assertEquals(6, writer.getFilePointer());
+      Assert.assertEquals(6, writer.seek(6));
+      Assert.assertEquals(-1, writer.seek(0));
+    }
+    Assert.assertArrayEquals(new byte[] {1, 2, 3, 4, 5, 6 }, out.toByteArray());
+  }
+
+  @Test
+  public void testClosedChannel() throws Exception
+  {
+    final Pipe pipe = Pipe.open();
+    final ChannelDataWriter writer = new ChannelDataWriter(pipe.sink());
+    writer.write(ByteBuffer.wrap(new byte[] {1, 2 }));
+    pipe.sink().close();
+    try
+    {
+      writer.write(ByteBuffer.wrap(new byte[] {3 }));
+      Assert.fail("Wrote to a closed channel");
+    }
+    catch (final RuntimeException ex)
+    {
+      Assert.assertTrue(ex.getCause() instanceof ClosedChannelException);
+    }
+    try
+    {
+      writer.write(new ByteBuffer[] {ByteBuffer.wrap(new byte[] {3 }) });
+      Assert.fail("Wrote to a closed channel");
+    }
+    catch (final RuntimeException ex)
+    {
+      Assert.assertTrue(ex.getCause() instanceof ClosedChannelException);
+    }
+    Assert.assertEquals(2, writer.getFilePointer());
+    pipe.source().close();
+  }
+
+  @Test
+  public void testBrokenPipe() throws Exception
+  {
+    final Pipe pipe = Pipe.open();
+    pipe.source().close();
+    try (ChannelDataWriter writer = new ChannelDataWriter(pipe.sink()))
+    {
+      writer.write(ByteBuffer.allocate(16));
+      Assert.fail("Wrote to a pipe nobody reads");
+    }
+    catch (final RuntimeException ex)
+    {
+      Assert.assertTrue(ex.getCause() instanceof IOException);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNonBlocking() throws Exception
+  {
+    final Pipe pipe = Pipe.open();
+    pipe.sink().configureBlocking(false);
+    try
+    {
+      new ChannelDataWriter(pipe.sink());
+      Assert.fail("Accepted a non-blocking channel");
+    }
+    finally
+    {
+      pipe.sink().close();
+      pipe.source().close();
+    }
+  }
+
+  @Test
+  public void testSwitchedToNonBlocking() throws Exception
+  {
+    final Pipe pipe = Pipe.open();
+    try (ChannelDataWriter writer = new ChannelDataWriter(pipe.sink()))
+    {
+      pipe.sink().configureBlocking(false);
+      // Far more than the pipe holds, with nobody reading, fails instead of spinning
+      final ByteBuffer large = ByteBuffer.allocate(16 * 1024 * 1024);
+      try
+      {
+        writer.write(large);
+        Assert.fail("Wrote more than the pipe holds");
+      }
+      catch (final RuntimeException ex)
+      {
+        Assert.assertTrue(ex.getCause() instanceof IOException);
+      }
+      Assert.assertEquals(large.position(), writer.getFilePointer());
+    }
+    finally
+    {
+      pipe.source().close();
+    }
+  }
+
+  @Test
+  public void testAsyncWriteFails() throws Exception
+  {
+    final Pipe pipe = Pipe.open();
+    final MatroskaFileWriter writer = new MatroskaFileWriter(new ChannelDataWriter(pipe.sink()));
+    writer.setAsync(4);
+    final MatroskaFileTrack track = new MatroskaFileTrack();
+    track.setTrackNo(1);
+    track.setTrackType(TrackType.SUBTITLE);
+    track.setCodecID("S_TEXT/UTF8");
+    writer.addTrack(track);
+    pipe.sink().close();
+    // The failure on the writer thread comes back to the caller, from addFrame() or at the latest from close()
+    try
+    {
+      for (int i = 0; i < 100; i++)
+      {
+        final MatroskaFileFrame frame = new MatroskaFileFrame();
+        frame.setData(ByteBuffer.wrap(("Frame " + i).getBytes(StandardCharsets.UTF_8)));
+        frame.setTrackNo(1);
+        frame.setTimecode(i * 100);
+        writer.addFrame(frame);
+      }
+      writer.close();
+      Assert.fail("Writing to a closed channel succeeded");
+    }
+    catch (final RuntimeException ex)
+    {
+      Throwable cause = ex;
+      while (cause.getCause() != null)
+      {
+        cause = cause.getCause();
+      }
+      Assert.assertTrue(cause instanceof ClosedChannelException);
+    }
+    finally
+    {
+      pipe.source().close();
+    }
+  }
+}
@@ -0,0 +1,158 @@
+package org.ebml.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SharedFileTest
+{
+  private static final int LENGTH = 100000;
+
+  @Test
+  public void testConcurrentCursors() throws Exception
+  {
+    final File tmp = File.createTempFile("sharedfile", ".bin");
+    tmp.deleteOnExit();
+    final byte[] bytes = new byte[LENGTH];
+    for (int i = 0; i < LENGTH; i++)
+    {
+      bytes[i] = (byte) (i * 31);
+    }
+    try (FileOutputStream out = new FileOutputStream(tmp))
+    {
+      out.write(bytes);
+    }
+
+    try (SharedFile file = new SharedFile(tmp.getPath()))
+    {
+      // Each cursor keeps its own position
+      final DataSource first = file.newCursor();
+      final DataSource second = file.newCursor(5000);
+      Assert.assertEquals(bytes[0], first.readByte());
+      Assert.assertEquals(bytes[5000], second.readByte());
+      Assert.assertEquals(bytes[1], first.readByte());
+      Assert.assertEquals(LENGTH, second.length());
+      Assert.assertEquals(LENGTH - 5001, second.skip(LENGTH - 5001));
+      Assert.assertEquals(-1, second.read(ByteBuffer.allocate(10)));
+
+      final PositionalDataSource raw = file.newUnbufferedCursor(LENGTH - 4);
+      final ByteBuffer tail = ByteBuffer.allocate(10);
+      Assert.assertEquals(4, raw.read(tail));
+      Assert.assertEquals(LENGTH, raw.getFilePointer());
+
+      // Threads read their own parts of the file at once
+      final AtomicInteger errors = new AtomicInteger();
+      final Thread[] threads = new Thread[4];
+      for (int t = 0; t < threads.length; t++)
+      {
+        final int start = t * (LENGTH / threads.length);
+        threads[t] = new Thread(new Runnable()
+        {
+          @Override
+          public void run()
+          {
+            final DataSource cursor = file.newCursor(start);
+            for (int i = start; i < start + LENGTH / threads.length; i++)
+            {
+              if (cursor.readByte() != bytes[i])
+              {
+                errors.incrementAndGet();
+              }
+            }
+          }
+        });
+        threads[t].start();
+      }
+      for (final Thread thread: threads)
+      {
+        thread.join();
+      }
+      Assert.assertEquals(0, errors.get());
+    }
+  }
+
+  @Test
+  public void testInterrupt() throws Exception
+  {
+    final File tmp = File.createTempFile("sharedfile", ".bin");
+    tmp.deleteOnExit();
+    try (FileOutputStream out = new FileOutputStream(tmp))
+    {
+      out.write(new byte[] {1, 2, 3, 4 });
+    }
+
+    try (SharedFile file = new SharedFile(tmp.getPath()))
+    {
+      final PositionalDataSource interrupted = file.newUnbufferedCursor(0);
+      final DataSource other = file.newCursor(2);
+      // The interrupt closes the channel, which must not look like the end of the file
+      Thread.currentThread().interrupt();
+      try
+      {
+        interrupted.read(ByteBuffer.allocate(1));
+        Assert.fail("Read while interrupted");
+      }
+      catch (final RuntimeException ex)
+      {
+        Assert.assertTrue(ex.getCause() instanceof ClosedByInterruptException);
+      }
+      finally
+      {
+        Assert.assertEquals(true, Thread.interrupted());
+      }
+      Assert.assertEquals(0, interrupted.getFilePointer());
+
+      // The file has been opened again for every cursor
+      Assert.assertEquals(3, other.readByte());
+      Assert.assertEquals(1, interrupted.readByte());
+      Assert.assertEquals(4, file.length());
+    }
+  }
+
+  @Test
+  public void testClosed() throws Exception
+  {
+    final File tmp = File.createTempFile("sharedfile", ".bin");
+    tmp.deleteOnExit();
+    try (FileOutputStream out = new FileOutputStream(tmp))
+    {
+      out.write(new byte[] {1, 2, 3, 4 });
+    }
+
+    // Closed for good, reading fails rather than finding the end of the file
+    final SharedFile file = new SharedFile(tmp.getPath());
+    final PositionalDataSource cursor = file.newUnbufferedCursor(0);
+    Assert.assertEquals(1, cursor.readByte());
+    file.close();
+    try
+    {
+      cursor.read(ByteBuffer.allocate(1));
+      Assert.fail("Read a closed file");
+    }
+    catch (final RuntimeException ex)
+    {
+      Assert.assertTrue(ex.getCause() instanceof ClosedChannelException);
+    }
+
+    // A cursor over a plain channel can't open it again
+    final FileChannel fc = FileChannel.open(tmp.toPath());
+    final PositionalDataSource plain = new PositionalDataSource(fc, 0);
+    fc.close();
+    try
+    {
+      plain.readByte();
+      Assert.fail("Read a closed channel");
+    }
+    catch (final RuntimeException ex)
+    {
+      Assert.assertTrue(ex.getCause() instanceof ClosedChannelException);
+    }
+  }
+}
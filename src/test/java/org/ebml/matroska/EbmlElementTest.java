@@ -38,6 +38,26 @@ public class EbmlElementTest
     }
   }
 
+  @Test
+  public void testLargeEbmlCodedSizes()
+  {
+    final ByteBuffer buffer = ByteBuffer.allocate(8);
+    for (int length = 1; length <= 8; length++)
+    {
+      // The largest size of each length, all ones being reserved for unknown sizes
+      final long largest = (1L << (7 * length)) - 2;
+      for (long size = largest - 1; size <= largest + 1 && size <= Element.MAX_CODED_SIZE; size++)
+      {
+        final byte[] encoded = Element.makeEbmlCodedSize(size);
+        assertEquals(size > largest ? length + 1 : length, encoded.length);
+        buffer.clear();
+        buffer.put(encoded);
+        buffer.flip();
+        assertEquals(size, EBMLReader.readEBMLCode(new MockSource(buffer)));
+      }
+    }
+  }
+
   @Test
   public void testMakeReadEbmlCode()
   {
@@ -69,4 +89,28 @@ public class EbmlElementTest
       buffer.clear();
     }
   }
+
+  @Test
+  public void testReadSignedEbmlCode()
+  {
+    // -2 in a one byte code, 0 in a two byte code and 1000000 in a four byte code
+    final ByteBuffer buffer = ByteBuffer.wrap(new byte[] {(byte) 0xBD, (byte) 0x5F, (byte) 0xFF, (byte) 0x18, (byte) 0x0F, (byte) 0x42,
+        (byte) 0x3F });
+    assertEquals(-2, EBMLReader.readSignedEBMLCode(buffer));
+    assertEquals(0, EBMLReader.readSignedEBMLCode(buffer));
+    assertEquals(1000000, EBMLReader.readSignedEBMLCode(buffer));
+    assertEquals(0, buffer.remaining());
+  }
+
+  @Test
+  public void testReadEbmlId()
+  {
+    final ByteBuffer buffer = ByteBuffer.wrap(new byte[] {(byte) 0x1A, (byte) 0x45, (byte) 0xDF, (byte) 0xA3, (byte) 0xEC });
+    final MockSource src = new MockSource(buffer);
+    final long id = EBMLReader.readEBMLId(src);
+    assertEquals(0x1A45DFA3L, id);
+    assertEquals(4, EBMLReader.getEBMLIdLength(id));
+    assertEquals(0xECL, EBMLReader.readEBMLId(src));
+    assertEquals(1, EBMLReader.getEBMLIdLength(0xEC));
+  }
 }
@@ -0,0 +1,185 @@
+package org.ebml.matroska;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ebml.io.BufferPool;
+import org.ebml.io.ChannelDataWriter;
+import org.ebml.io.FileDataSource;
+import org.ebml.io.FileDataWriter;
+import org.ebml.io.PooledBuffer;
+import org.ebml.matroska.MatroskaFileTrack.TrackType;
+import org.junit.Test;
+
+public class MatroskaClusterTest
+{
+  @Test
+  public void testBlockTimecodeRange() throws Exception
+  {
+    // The largest offset a block timecode can hold still fits in the cluster, one more does not
+    final MatroskaCluster cluster = new MatroskaCluster();
+    cluster.addFrame(frame(1000));
+    assertEquals(false, cluster.isNewCluster(frame(1000 + Short.MAX_VALUE)));
+    cluster.addFrame(frame(1000 + Short.MAX_VALUE));
+    assertEquals(true, cluster.isNewCluster(frame(1001 + Short.MAX_VALUE)));
+    // Earlier frames widen the range too
+    assertEquals(true, cluster.isNewCluster(frame(999)));
+    cluster.flush(new ChannelDataWriter(Channels.newChannel(new ByteArrayOutputStream())));
+
+    final File file = File.createTempFile("test", ".mkv");
+    try
+    {
+      final FileDataWriter out = new FileDataWriter(file.getPath());
+      final MatroskaFileWriter writer = new MatroskaFileWriter(out);
+      writer.setClusterPolicy(new MatroskaClusterPolicy.MaxDuration(Long.MAX_VALUE));
+      final MatroskaFileTrack track = new MatroskaFileTrack();
+      track.setTrackNo(1);
+      track.setTrackType(TrackType.SUBTITLE);
+      track.setCodecID("S_TEXT/UTF8");
+      writer.addTrack(track);
+      for (final long timecode: new long[] {0, Short.MAX_VALUE, Short.MAX_VALUE + 1 })
+      {
+        writer.addFrame(frame(timecode));
+      }
+      writer.close();
+      out.close();
+
+      final MatroskaFile reader = new MatroskaFile(new FileDataSource(file.getPath()));
+      reader.readFile();
+      assertEquals(0, reader.getNextFrame().getTimecode());
+      assertEquals(Short.MAX_VALUE, reader.getNextFrame().getTimecode());
+      assertEquals(Short.MAX_VALUE + 1, reader.getNextFrame().getTimecode());
+      // The last frame is in a cluster of its own
+      assertEquals(Short.MAX_VALUE + 1, reader.seek(Short.MAX_VALUE + 1));
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testReleaseListener() throws Exception
+  {
+    final AtomicInteger released = new AtomicInteger();
+    final MatroskaFileFrame.ReleaseListener listener = new MatroskaFileFrame.ReleaseListener()
+    {
+      @Override
+      public void frameReleased(final MatroskaFileFrame frame)
+      {
+        released.incrementAndGet();
+      }
+    };
+    final MatroskaCluster cluster = new MatroskaCluster();
+    for (int i = 0; i < 3; i++)
+    {
+      final MatroskaFileFrame frame = frame(i * 100);
+      frame.setReleaseListener(listener);
+      cluster.addFrame(frame);
+    }
+    // Held until the cluster is written
+    assertEquals(0, released.get());
+    cluster.flush(new ChannelDataWriter(Channels.newChannel(new ByteArrayOutputStream())));
+    assertEquals(3, released.get());
+
+    // Released as well when the cluster can't be written
+    final Pipe pipe = Pipe.open();
+    pipe.sink().close();
+    final MatroskaFileFrame frame = frame(1000);
+    frame.setReleaseListener(listener);
+    cluster.addFrame(frame);
+    try
+    {
+      cluster.flush(new ChannelDataWriter(pipe.sink()));
+      fail("Wrote to a closed channel");
+    }
+    catch (final RuntimeException ex)
+    {
+      // expected
+    }
+    finally
+    {
+      pipe.source().close();
+    }
+    assertEquals(4, released.get());
+    // Only told once
+    frame.release();
+    assertEquals(4, released.get());
+
+    // A seekable writer holds frames until their cluster is written, two to a cluster here
+    final File file = File.createTempFile("test", ".mkv");
+    try (FileDataWriter out = new FileDataWriter(file.getPath()))
+    {
+      final MatroskaFileWriter writer = new MatroskaFileWriter(out);
+      writer.setClusterPolicy(new MatroskaClusterPolicy.MaxDuration(1000));
+      final MatroskaFileTrack track = new MatroskaFileTrack();
+      track.setTrackNo(1);
+      track.setTrackType(TrackType.SUBTITLE);
+      track.setCodecID("S_TEXT/UTF8");
+      writer.addTrack(track);
+      released.set(0);
+      for (int i = 0; i < 10; i++)
+      {
+        final MatroskaFileFrame next = frame(i * 600);
+        next.setReleaseListener(listener);
+        writer.addFrame(next);
+        assertEquals(i - i % 2, released.get());
+      }
+      writer.close();
+      assertEquals(10, released.get());
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testReleaseCopies()
+  {
+    final AtomicInteger released = new AtomicInteger();
+    final MatroskaFileFrame frame = frame(0);
+    frame.setReleaseListener(new MatroskaFileFrame.ReleaseListener()
+    {
+      @Override
+      public void frameReleased(final MatroskaFileFrame frame)
+      {
+        released.incrementAndGet();
+      }
+    });
+    final BufferPool pool = new BufferPool();
+    final PooledBuffer buffer = pool.acquire(16);
+    frame.setPooledBuffer(buffer);
+    buffer.release();
+
+    // A copy holds its own reference to the pooled buffer, but not the listener
+    final MatroskaFileFrame copy = new MatroskaFileFrame(frame);
+    assertEquals(null, copy.getReleaseListener());
+    assertEquals(2, buffer.getRefCount());
+    copy.release();
+    assertEquals(0, released.get());
+    assertEquals(1, buffer.getRefCount());
+    frame.release();
+    assertEquals(1, released.get());
+    assertEquals(1, pool.getFreeCount());
+    copy.release();
+    assertEquals(1, pool.getFreeCount());
+  }
+
+  private static MatroskaFileFrame frame(final long timecode)
+  {
+    final MatroskaFileFrame frame = new MatroskaFileFrame();
+    frame.setData(ByteBuffer.wrap(("Frame " + timecode).getBytes(StandardCharsets.UTF_8)));
+    frame.setTrackNo(1);
+    frame.setTimecode(timecode);
+    return frame;
+  }
+}
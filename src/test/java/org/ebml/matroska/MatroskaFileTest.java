@@ -0,0 +1,469 @@
+package org.ebml.matroska;
+
+import static org.ebml.ElementBytes.block;
+import static org.ebml.ElementBytes.concat;
+import static org.ebml.ElementBytes.element;
+import static org.ebml.ElementBytes.string;
+import static org.ebml.ElementBytes.uint;
+import static org.ebml.ElementBytes.unknownSize;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ebml.Element;
+import org.ebml.io.BufferPool;
+import org.ebml.io.FileDataSource;
+import org.ebml.io.FileDataWriter;
+import org.ebml.io.MappedFileDataSource;
+import org.ebml.matroska.MatroskaFileTrack.TrackType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Reads files built by hand, element by element, rather than by MatroskaFileWriter, to cover what other muxers write.
+ */
+public class MatroskaFileTest
+{
+  private File file;
+
+  @Before
+  public void setUp() throws Exception
+  {
+    file = File.createTempFile("test", ".mkv");
+  }
+
+  @After
+  public void tearDown() throws Exception
+  {
+    file.delete();
+  }
+
+  @Test
+  public void testReadMapped() throws Exception
+  {
+    final char[] large = new char[100];
+    Arrays.fill(large, 'x');
+    // The last frame ends the file
+    write(tracks(1, 2),
+          cluster(0, simpleBlock(1, 0, new String(large)), simpleBlock(2, 10, "Frame 1")),
+          cluster(1000, simpleBlock(1, 0, "Frame 2"), simpleBlock(2, 5, "3")));
+
+    // Windows smaller than the elements, down to a single byte, are remapped as needed
+    for (final int window: new int[] {1, 7, 64, MappedFileDataSource.DEFAULT_WINDOW_SIZE })
+    {
+      try (MappedFileDataSource source = new MappedFileDataSource(file.getPath(), window))
+      {
+        final MatroskaFile reader = new MatroskaFile(source);
+        reader.readFile();
+        assertEquals(2, reader.getTrackList().length);
+        assertEquals(new String(large), text(reader.getNextFrame()));
+        assertEquals("Frame 1", text(reader.getNextFrame()));
+        final MatroskaFileFrame frame = reader.getNextFrame();
+        assertEquals(1000, frame.getTimecode());
+        assertEquals("Frame 2", text(frame));
+        assertEquals("3", text(reader.getNextFrame()));
+        assertEquals(null, reader.getNextFrame());
+      }
+
+      // The track number is read ahead of the rest of the block, which is then read from the mapping
+      try (MappedFileDataSource source = new MappedFileDataSource(file.getPath(), window))
+      {
+        final MatroskaFile reader = new MatroskaFile(source);
+        reader.setTrackFilter(2);
+        reader.readFile();
+        assertEquals("Frame 1", text(reader.getNextFrame()));
+        assertEquals("3", text(reader.getNextFrame()));
+        assertEquals(null, reader.getNextFrame());
+      }
+    }
+  }
+
+  @Test
+  public void testSeekWithTimecodeScale() throws Exception
+  {
+    // Timecodes are written in tenths of a millisecond
+    final FileDataWriter out = new FileDataWriter(file.getPath());
+    final MatroskaFileWriter writer = new MatroskaFileWriter(out);
+    writer.setTimecodeScale(100000);
+    final MatroskaFileTrack track = new MatroskaFileTrack();
+    track.setTrackNo(42);
+    track.setTrackType(TrackType.SUBTITLE);
+    track.setCodecID("S_TEXT/UTF8");
+    writer.addTrack(track);
+    for (int i = 0; i < 20; i++)
+    {
+      final MatroskaFileFrame frame = new MatroskaFileFrame();
+      frame.setData(ByteBuffer.wrap(("Frame " + i).getBytes(StandardCharsets.UTF_8)));
+      frame.setTrackNo(42);
+      frame.setTimecode(i * 1000);
+      writer.addFrame(frame);
+    }
+    writer.close();
+    out.close();
+
+    // Frames keep the file's units, seeks are in milliseconds
+    final MatroskaFile reader = new MatroskaFile(new FileDataSource(file.getPath()));
+    reader.readFile();
+    assertEquals(100000, reader.getTimecodeScale());
+    assertEquals(0, reader.getNextFrame().getTimecode());
+    assertEquals(1000, reader.getNextFrame().getTimecode());
+    assertEquals(600, reader.seek(750));
+    final MatroskaFileFrame frame = reader.getNextFrame();
+    assertEquals(6000, frame.getTimecode());
+    assertEquals("Frame 6", text(frame));
+    assertEquals(1800, reader.seek(2500, 42));
+    assertEquals(18000, reader.getNextFrame().getTimecode());
+    assertEquals(0, reader.seek(50));
+  }
+
+  @Test
+  public void testSeekWithoutCues() throws Exception
+  {
+    write(info(100000),
+          tracks(1),
+          cluster(0, simpleBlock(1, 0, "a"), simpleBlock(1, 50, "b")),
+          cluster(10000, simpleBlock(1, 0, "c"), simpleBlock(1, 50, "d")),
+          cluster(20000, simpleBlock(1, 0, "e")));
+
+    // The clusters are scanned for their timecodes
+    final MatroskaFile reader = new MatroskaFile(new FileDataSource(file.getPath()));
+    reader.readFile();
+    assertEquals(0, reader.getNextFrame(1).getTimecode());
+    assertEquals(50, reader.getNextFrame(1).getTimecode());
+    assertEquals(1000, reader.seek(1500));
+    assertEquals(10000, reader.getNextFrame().getTimecode());
+    final MatroskaFileFrame frame = reader.getNextFrame();
+    assertEquals(10050, frame.getTimecode());
+    assertEquals("d", text(frame));
+    assertEquals(0, reader.seek(999));
+    assertEquals("a", text(reader.getNextFrame()));
+    assertEquals(2000, reader.seek(5000));
+    assertEquals("e", text(reader.getNextFrame()));
+    assertEquals(null, reader.getNextFrame());
+  }
+
+  @Test
+  public void testUnknownSizes() throws Exception
+  {
+    // A Segment and Clusters of unknown size, as live muxers write them, with size fields of different lengths, a Void between Clusters and
+    // elements of known size after them
+    final byte[] header = element(MatroskaDocTypes.EBML, string(MatroskaDocTypes.DocType, "matroska"));
+    final byte[] segment = unknownSize(MatroskaDocTypes.Segment,
+                                       1,
+                                       tracks(1, 2),
+                                       unknownSize(MatroskaDocTypes.Cluster, 1, uint(MatroskaDocTypes.Timecode, 0), simpleBlock(1, 0, "a"),
+                                                   blockGroup(2, 10, "b")),
+                                       element(MatroskaDocTypes.Void, new byte[5]),
+                                       unknownSize(MatroskaDocTypes.Cluster, 8, uint(MatroskaDocTypes.Timecode, 1000), blockGroup(1, 0, "c"),
+                                                   simpleBlock(2, 10, "d")),
+                                       element(MatroskaDocTypes.Cues),
+                                       unknownSize(MatroskaDocTypes.Cluster, 4, uint(MatroskaDocTypes.Timecode, 2000), simpleBlock(1, 0, "e")));
+    Files.write(file.toPath(), concat(header, segment));
+
+    final MatroskaFile reader = new MatroskaFile(new FileDataSource(file.getPath()));
+    reader.readFile();
+    assertEquals(2, reader.getTrackList().length);
+    final String[] texts = {"a", "b", "c", "d", "e" };
+    final long[] timecodes = {0, 10, 1000, 1010, 2000 };
+    for (int i = 0; i < texts.length; i++)
+    {
+      final MatroskaFileFrame frame = reader.getNextFrame();
+      assertEquals(texts[i], text(frame));
+      assertEquals(timecodes[i], frame.getTimecode());
+    }
+    // The last Cluster ends with the file
+    assertEquals(null, reader.getNextFrame());
+
+    // The same, scanned for seeking without Cues to go by
+    final MatroskaFile seeking = new MatroskaFile(new FileDataSource(file.getPath()));
+    seeking.readFile();
+    assertEquals(1000, seeking.seek(1500));
+    assertEquals("c", text(seeking.getNextFrame()));
+    assertEquals(2000, seeking.seek(2500));
+    assertEquals("e", text(seeking.getNextFrame()));
+  }
+
+  @Test
+  public void testSparseTrack() throws Exception
+  {
+    // Subtitles only in the first and the last of many clusters
+    final byte[][] level1 = new byte[22][];
+    level1[0] = tracks(1, 2);
+    for (int i = 0; i < 20; i++)
+    {
+      level1[i + 1] = i == 0 || i == 19 ? cluster(i * 1000, simpleBlock(1, 0, "Video " + i), simpleBlock(2, 10, "Subtitle " + i))
+                                        : cluster(i * 1000, simpleBlock(1, 0, "Video " + i));
+    }
+    level1[21] = element(MatroskaDocTypes.Tags);
+    write(level1);
+
+    final MatroskaFile reader = new MatroskaFile(new FileDataSource(file.getPath()));
+    reader.readFile();
+    assertEquals("Subtitle 0", text(reader.getNextFrame(2)));
+    assertEquals("Subtitle 19", text(reader.getNextFrame(2)));
+    assertEquals(null, reader.getNextFrame(2));
+    // The frames of the other track passed over on the way are still there
+    for (int i = 0; i < 20; i++)
+    {
+      assertEquals("Video " + i, text(reader.getNextFrame(1)));
+    }
+    assertEquals(null, reader.getNextFrame(1));
+    assertEquals(null, reader.getNextFrame());
+  }
+
+  @Test
+  public void testPerTrackReaders() throws Exception
+  {
+    // One track much sparser than the other, so its reader waits on clusters demuxed for the other one
+    final byte[][] level1 = new byte[101][];
+    level1[0] = tracks(1, 2);
+    for (int i = 0; i < 100; i++)
+    {
+      level1[i + 1] = i % 10 == 0 ? cluster(i * 100, simpleBlock(1, 0, "1:" + i), simpleBlock(2, 50, "2:" + i))
+                                  : cluster(i * 100, simpleBlock(1, 0, "1:" + i));
+    }
+    write(level1);
+
+    final MatroskaFile reader = new MatroskaFile(new FileDataSource(file.getPath()));
+    reader.setTrackQueueCapacity(4);
+    reader.readFile();
+    final AtomicInteger failures = new AtomicInteger();
+    final Thread[] threads = new Thread[2];
+    for (int t = 0; t < threads.length; t++)
+    {
+      final int trackNo = t + 1;
+      threads[t] = new Thread()
+      {
+        @Override
+        public void run()
+        {
+          for (int i = 0; i < 100; i += trackNo == 1 ? 1 : 10)
+          {
+            final MatroskaFileFrame frame = reader.getNextFrame(trackNo);
+            if (frame == null || !text(frame).equals(trackNo + ":" + i))
+            {
+              failures.incrementAndGet();
+            }
+          }
+          if (reader.getNextFrame(trackNo) != null)
+          {
+            failures.incrementAndGet();
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (final Thread thread: threads)
+    {
+      thread.join(10000);
+      assertFalse(thread.isAlive());
+    }
+    assertEquals(0, failures.get());
+    assertEquals(null, reader.getNextFrame());
+  }
+
+  @Test
+  public void testTrackFilter() throws Exception
+  {
+    // A track number of two bytes, and blocks in BlockGroups as well as SimpleBlocks
+    write(tracks(1, 200),
+          cluster(0,
+                  simpleBlock(1, 0, "Frame 0"),
+                  simpleBlock(200, 10, "Frame 1"),
+                  blockGroup(1, 20, "Frame 2"),
+                  blockGroup(200, 30, "Frame 3"),
+                  simpleBlock(1, 40, "Frame 4")));
+
+    final MatroskaFile reader = new MatroskaFile(new FileDataSource(file.getPath()));
+    reader.setTrackFilter(200);
+    reader.readFile();
+    MatroskaFileFrame frame = reader.getNextFrame();
+    assertEquals(200, frame.getTrackNo());
+    assertEquals("Frame 1", text(frame));
+    frame = reader.getNextFrame();
+    assertEquals(30, frame.getTimecode());
+    assertEquals(7, frame.getDuration());
+    assertEquals("Frame 3", text(frame));
+    assertEquals(null, reader.getNextFrame());
+
+    final MatroskaFile skipping = new MatroskaFile(new FileDataSource(file.getPath()));
+    skipping.setTrackFilter(1);
+    skipping.readFile();
+    assertEquals("Frame 0", text(skipping.getNextFrame()));
+    assertEquals("Frame 2", text(skipping.getNextFrame()));
+    assertEquals("Frame 4", text(skipping.getNextFrame()));
+    assertEquals(null, skipping.getNextFrame());
+
+    // A track that isn't in the file
+    final MatroskaFile none = new MatroskaFile(new FileDataSource(file.getPath()));
+    none.setTrackFilter(3);
+    none.readFile();
+    assertEquals(null, none.getNextFrame());
+    assertEquals(null, none.getNextFrame(1));
+  }
+
+  @Test
+  public void testLacing() throws Exception
+  {
+    final char[] large = new char[200];
+    Arrays.fill(large, 'x');
+    // Frames that shrink, so the EBML lacing differences are negative, in codes of one and two bytes
+    write(tracks(1),
+          cluster(0,
+                  lacedBlock(1, 0, 0x06, new byte[] {(byte) 0x8A, (byte) 0xBA }, "abcdefghij", "klmno", "pq"),
+                  lacedBlock(1, 10, 0x06, new byte[] {0x40, (byte) 0xC8, 0x5F, 0x3C }, new String(large), "klmno", "pq"),
+                  lacedBlock(1, 20, 0x02, new byte[] {10, 5 }, "abcdefghij", "klmno", "pq")));
+
+    final MatroskaFile reader = new MatroskaFile(new FileDataSource(file.getPath()));
+    reader.readFile();
+    for (final String first: new String[] {"abcdefghij", new String(large), "abcdefghij" })
+    {
+      assertEquals(first, text(reader.getNextFrame()));
+      assertEquals("klmno", text(reader.getNextFrame()));
+      assertEquals("pq", text(reader.getNextFrame()));
+    }
+    assertEquals(null, reader.getNextFrame());
+  }
+
+  @Test
+  public void testPooledFrames() throws Exception
+  {
+    write(tracks(1, 2),
+          cluster(0, simpleBlock(1, 0, "a"), lacedBlock(2, 10, "abc", "def", "ghi"), blockGroup(1, 20, "b")),
+          cluster(1000, simpleBlock(1, 0, "c"), simpleBlock(2, 0, "d")));
+
+    final BufferPool pool = new BufferPool();
+    final MatroskaFile reader = new MatroskaFile(new FileDataSource(file.getPath()));
+    reader.setBufferPool(pool);
+    reader.readFile();
+    MatroskaFileFrame frame = reader.getNextFrame();
+    assertEquals(true, frame.getData().isDirect());
+    assertEquals("a", text(frame));
+    assertEquals(0, pool.getFreeCount());
+    frame.release();
+    assertEquals(null, frame.getData());
+    assertEquals(1, pool.getFreeCount());
+
+    // The frames of a laced block share its buffer, which only goes back once they have all been released
+    final MatroskaFileFrame[] laced = {reader.getNextFrame(), reader.getNextFrame(), reader.getNextFrame() };
+    assertEquals("abc", text(laced[0]));
+    assertEquals("def", text(laced[1]));
+    assertEquals("ghi", text(laced[2]));
+    laced[2].release();
+    laced[0].release();
+    assertEquals(1, pool.getFreeCount());
+    assertEquals("def", text(laced[1]));
+    laced[1].release();
+    assertEquals(2, pool.getFreeCount());
+    frame = reader.getNextFrame();
+    assertEquals("b", text(frame));
+    frame.release();
+    assertEquals(3, pool.getFreeCount());
+  }
+
+  @Test
+  public void testPooledFramesSeek() throws Exception
+  {
+    write(tracks(1, 2),
+          cluster(0, simpleBlock(1, 0, "a"), lacedBlock(2, 10, "abc", "def", "ghi"), blockGroup(1, 20, "b")),
+          cluster(1000, simpleBlock(1, 0, "c"), simpleBlock(2, 0, "d")));
+
+    final BufferPool pool = new BufferPool();
+    final MatroskaFile reader = new MatroskaFile(new FileDataSource(file.getPath()));
+    reader.setBufferPool(pool);
+    reader.readFile();
+    reader.getNextFrame().release();
+    assertEquals(1, pool.getFreeCount());
+    // The frames still queued from the first cluster are released by the seek
+    assertEquals(1000, reader.seek(1000));
+    assertEquals(3, pool.getFreeCount());
+    // And their buffers reused for the next blocks
+    final MatroskaFileFrame frame = reader.getNextFrame();
+    assertEquals("c", text(frame));
+    assertEquals(1, pool.getFreeCount());
+    frame.release();
+    reader.getNextFrame().release();
+    assertEquals(3, pool.getFreeCount());
+    assertEquals(null, reader.getNextFrame());
+  }
+
+  private void write(final byte[]... level1) throws Exception
+  {
+    final byte[] header = element(MatroskaDocTypes.EBML, string(MatroskaDocTypes.DocType, "matroska"));
+    Files.write(file.toPath(), concat(header, element(MatroskaDocTypes.Segment, level1)));
+  }
+
+  static byte[] info(final long timecodeScale)
+  {
+    return element(MatroskaDocTypes.Info, uint(MatroskaDocTypes.TimecodeScale, timecodeScale));
+  }
+
+  static byte[] tracks(final int... trackNos)
+  {
+    final byte[][] entries = new byte[trackNos.length][];
+    for (int i = 0; i < trackNos.length; i++)
+    {
+      entries[i] = element(MatroskaDocTypes.TrackEntry,
+                           uint(MatroskaDocTypes.TrackNumber, trackNos[i]),
+                           uint(MatroskaDocTypes.TrackType, 0x11),
+                           string(MatroskaDocTypes.CodecID, "S_TEXT/UTF8"));
+    }
+    return element(MatroskaDocTypes.Tracks, entries);
+  }
+
+  static byte[] cluster(final long timecode, final byte[]... blocks)
+  {
+    return element(MatroskaDocTypes.Cluster, uint(MatroskaDocTypes.Timecode, timecode), concat(blocks));
+  }
+
+  static byte[] simpleBlock(final int trackNo, final int timecode, final String text)
+  {
+    return element(MatroskaDocTypes.SimpleBlock, block(trackNo, timecode, true, text.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  static byte[] blockGroup(final int trackNo, final int timecode, final String text)
+  {
+    return element(MatroskaDocTypes.BlockGroup,
+                   element(MatroskaDocTypes.Block, block(trackNo, timecode, false, text.getBytes(StandardCharsets.UTF_8))),
+                   uint(MatroskaDocTypes.BlockDuration, 7));
+  }
+
+  /**
+   * A SimpleBlock holding frames of the same size in fixed-size lacing
+   */
+  static byte[] lacedBlock(final int trackNo, final int timecode, final String... texts)
+  {
+    return lacedBlock(trackNo, timecode, 0x04, new byte[0], texts);
+  }
+
+  /**
+   * A SimpleBlock holding laced frames
+   *
+   * @param lacing The lacing bits of the flags
+   * @param sizes The lace sizes, coded as the lacing needs them
+   */
+  static byte[] lacedBlock(final int trackNo, final int timecode, final int lacing, final byte[] sizes, final String... texts)
+  {
+    final byte[][] parts = new byte[texts.length + 3][];
+    parts[0] = Element.makeEbmlCodedSize(trackNo);
+    parts[1] = new byte[] {(byte) (timecode >> 8), (byte) timecode, (byte) (0x80 | lacing), (byte) (texts.length - 1) };
+    parts[2] = sizes;
+    for (int i = 0; i < texts.length; i++)
+    {
+      parts[i + 3] = texts[i].getBytes(StandardCharsets.UTF_8);
+    }
+    return element(MatroskaDocTypes.SimpleBlock, concat(parts));
+  }
+
+  static String text(final MatroskaFileFrame frame)
+  {
+    return StandardCharsets.UTF_8.decode(frame.getData()).toString();
+  }
+}
@@ -1,16 +1,28 @@
 package org.ebml.matroska;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 import org.ebml.EBMLReader;
 import org.ebml.Element;
 import org.ebml.MasterElement;
+import org.ebml.UnsignedIntegerElement;
+import org.ebml.io.ChannelDataWriter;
 import org.ebml.io.DataSource;
 import org.ebml.io.FileDataSource;
 import org.ebml.io.FileDataWriter;
@@ -120,6 +132,312 @@ public class MatroskaFileWriterTest
     testDocTraversal();
   }
 
+  @Test
+  public void testReadClusterByCluster() throws Exception
+  {
+    final MatroskaFileWriter writer = new MatroskaFileWriter(ioDW);
+    writer.addTrack(testTrack);
+    for (int i = 0; i < 20; i++)
+    {
+      final MatroskaFileFrame frame = generateFrame("Frame " + i, 42);
+      frame.setTimecode(i * 1000);
+      writer.addFrame(frame);
+    }
+    writer.close();
+
+    final FileDataSource inputDataSource = new FileDataSource(destination.getPath());
+    final MatroskaFile reader = new MatroskaFile(inputDataSource);
+    reader.readFile();
+    for (int i = 0; i < 20; i++)
+    {
+      final MatroskaFileFrame frame = reader.getNextFrame();
+      assertEquals(i * 1000, frame.getTimecode());
+      assertEquals("Frame " + i, StandardCharsets.UTF_8.decode(frame.getData()).toString());
+    }
+    assertEquals(null, reader.getNextFrame());
+  }
+
+  @Test
+  public void testKeyFrameClusters() throws Exception
+  {
+    final MatroskaFileWriter writer = new MatroskaFileWriter(ioDW);
+    writer.setClusterPolicy(new MatroskaClusterPolicy.KeyFrame(42, 0));
+    writer.addTrack(testTrack);
+    for (int i = 0; i < 20; i++)
+    {
+      final MatroskaFileFrame frame = generateFrame("Frame " + i, 42);
+      frame.setTimecode(i * 1000);
+      frame.setKeyFrame(i % 4 == 0);
+      writer.addFrame(frame);
+    }
+    // Too far from the cluster start for a block timecode, so this needs a cluster of its own
+    final MatroskaFileFrame late = generateFrame("Late frame", 42);
+    late.setTimecode(60000);
+    writer.addFrame(late);
+    writer.close();
+
+    final FileDataSource inputDataSource = new FileDataSource(destination.getPath());
+    final MatroskaFile reader = new MatroskaFile(inputDataSource);
+    reader.readFile();
+    assertEquals(4000, reader.seek(7500));
+    assertEquals(4000, reader.getNextFrame().getTimecode());
+    assertEquals(16000, reader.seek(19000));
+    assertEquals(60000, reader.seek(60000));
+    assertEquals("Late frame", StandardCharsets.UTF_8.decode(reader.getNextFrame().getData()).toString());
+  }
+
+  @Test
+  public void testCuesForManyTracks() throws Exception
+  {
+    // Frames of more tracks than the cue track bitmask holds, one of them far beyond it. The cues only go by the frames, so the tracks aren't all
+    // declared, as that many entries wouldn't fit in the space reserved for the Tracks.
+    final Set<Long> trackNos = new TreeSet<>();
+    for (int i = 1; i <= 65; i++)
+    {
+      trackNos.add(i == 65 ? 200L : i);
+    }
+    final MatroskaFileWriter writer = new MatroskaFileWriter(ioDW);
+    writer.addTrack(testTrack);
+    for (int c = 0; c < 3; c++)
+    {
+      for (final long trackNo: trackNos)
+      {
+        final MatroskaFileFrame frame = generateFrame("Frame " + c, (int) trackNo);
+        frame.setTimecode(c * 6000);
+        writer.addFrame(frame);
+      }
+    }
+    writer.close();
+
+    // Positions of the level 1 elements relative to the segment data, which is what the SeekHead and Cues hold
+    final FileDataSource ioDS = new FileDataSource(destination.getPath());
+    final EBMLReader reader = new EBMLReader(ioDS);
+    reader.readNextElement().skipData(ioDS);
+    final MasterElement segment = (MasterElement) reader.readNextElement();
+    final long segmentData = ioDS.getFilePointer();
+    final Map<String, Long> firstPositions = new HashMap<>();
+    final Map<String, Long> seekPositions = new HashMap<>();
+    final List<Long> clusterPositions = new ArrayList<>();
+    final List<Long> cuePositions = new ArrayList<>();
+    long position = ioDS.getFilePointer();
+    Element level1 = segment.readNextChild(reader);
+    while (level1 != null)
+    {
+      final String id = EBMLReader.bytesToHex(level1.getType());
+      if (!firstPositions.containsKey(id))
+      {
+        firstPositions.put(id, position - segmentData);
+      }
+      if (level1.isType(MatroskaDocTypes.Cluster.getType()))
+      {
+        clusterPositions.add(position - segmentData);
+      }
+      else if (level1.isType(MatroskaDocTypes.SeekHead.getType()))
+      {
+        Element seek = ((MasterElement) level1).readNextChild(reader);
+        while (seek != null)
+        {
+          final List<Element> fields = readChildren((MasterElement) seek, reader, ioDS);
+          seekPositions.put(EBMLReader.bytesToHex(fields.get(0).getData()), ((UnsignedIntegerElement) fields.get(1)).getValue());
+          seek = ((MasterElement) level1).readNextChild(reader);
+        }
+      }
+      else if (level1.isType(MatroskaDocTypes.Cues.getType()))
+      {
+        MasterElement cuePoint = (MasterElement) ((MasterElement) level1).readNextChild(reader);
+        while (cuePoint != null)
+        {
+          final Element cueTime = cuePoint.readNextChild(reader);
+          cueTime.readData(ioDS);
+          assertEquals(cuePositions.size() * 6000, ((UnsignedIntegerElement) cueTime).getValue());
+          // Every track of the cluster, each pointing at the cluster
+          final Set<Long> cueTracks = new TreeSet<>();
+          long cuePosition = -1;
+          Element trackPositions = cuePoint.readNextChild(reader);
+          while (trackPositions != null)
+          {
+            final List<Element> fields = readChildren((MasterElement) trackPositions, reader, ioDS);
+            cueTracks.add(((UnsignedIntegerElement) fields.get(0)).getValue());
+            final long clusterPosition = ((UnsignedIntegerElement) fields.get(1)).getValue();
+            assertEquals(cuePosition < 0 ? clusterPosition : cuePosition, clusterPosition);
+            cuePosition = clusterPosition;
+            trackPositions = cuePoint.readNextChild(reader);
+          }
+          assertEquals(trackNos, cueTracks);
+          cuePositions.add(cuePosition);
+          cuePoint = (MasterElement) ((MasterElement) level1).readNextChild(reader);
+        }
+      }
+      level1.skipData(ioDS);
+      position = ioDS.getFilePointer();
+      level1 = segment.readNextChild(reader);
+    }
+    ioDS.close();
+
+    assertEquals(3, clusterPositions.size());
+    assertEquals(clusterPositions, cuePositions);
+    final String cues = EBMLReader.bytesToHex(MatroskaDocTypes.Cues.getType());
+    assertEquals(true, seekPositions.containsKey(cues));
+    for (final Map.Entry<String, Long> seek: seekPositions.entrySet())
+    {
+      assertEquals(seek.getKey(), firstPositions.get(seek.getKey()), seek.getValue());
+    }
+
+    final MatroskaFile matroska = new MatroskaFile(new FileDataSource(destination.getPath()));
+    matroska.readFile();
+    assertEquals(6000, matroska.seek(7000, 200));
+    assertEquals("Frame 1", StandardCharsets.UTF_8.decode(matroska.getNextFrame(200).getData()).toString());
+  }
+
+  @Test
+  public void testFastStart() throws Exception
+  {
+    final MatroskaFileWriter writer = new MatroskaFileWriter(ioDW);
+    final long position = ioDW.getFilePointer();
+    for (final long size: new long[] {-1, 0, 1, Long.MAX_VALUE })
+    {
+      try
+      {
+        writer.setFastStart(size);
+        fail("Reserved " + size + " bytes for the Cues");
+      }
+      catch (final IllegalArgumentException ex)
+      {
+        // A bad size leaves nothing behind, so it can be retried
+        assertEquals(false, writer.isFastStart());
+        assertEquals(position, ioDW.getFilePointer());
+      }
+    }
+    writer.setFastStart(1024);
+    assertEquals(position + 1024, ioDW.getFilePointer());
+    writer.addTrack(testTrack);
+    for (int i = 0; i < 20; i++)
+    {
+      final MatroskaFileFrame frame = generateFrame("Frame " + i, 42);
+      frame.setTimecode(i * 1000);
+      writer.addFrame(frame);
+    }
+    writer.close();
+
+    final FileDataSource ioDS = new FileDataSource(destination.getPath());
+    final EBMLReader reader = new EBMLReader(ioDS);
+    final Element header = reader.readNextElement();
+    header.skipData(ioDS);
+    final MasterElement segment = (MasterElement) reader.readNextElement();
+    assertEquals(ioDS.length() - ioDS.getFilePointer(), segment.getSize());
+    Element level1 = segment.readNextChild(reader);
+    while (!level1.isType(MatroskaDocTypes.Cues.getType()))
+    {
+      assertEquals(false, level1.isType(MatroskaDocTypes.Cluster.getType()));
+      level1.skipData(ioDS);
+      level1 = segment.readNextChild(reader);
+    }
+
+    final MatroskaFile matroska = new MatroskaFile(new FileDataSource(destination.getPath()));
+    matroska.readFile();
+    assertEquals(12000, matroska.seek(13000));
+    assertEquals(12000, matroska.getNextFrame().getTimecode());
+  }
+
+  @Test
+  public void testLiveWrite() throws Exception
+  {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final MatroskaFileWriter writer = new MatroskaFileWriter(new ChannelDataWriter(Channels.newChannel(out)));
+    writer.addTrack(testTrack);
+    writer.addFrame(generateFrame("I know a song...", 42));
+    // Written as soon as it is added
+    final int size = out.size();
+    writer.addFrame(generateFrame("that gets on everybody's nerves", 42));
+    assertEquals(true, out.size() > size);
+    writer.close();
+    Files.write(destination.toPath(), out.toByteArray());
+
+    final FileDataSource inputDataSource = new FileDataSource(destination.getPath());
+    final MatroskaFile reader = new MatroskaFile(inputDataSource);
+    reader.readFile();
+    assertEquals(42, reader.getTrackList()[0].getTrackNo());
+    assertEquals("I know a song...", StandardCharsets.UTF_8.decode(reader.getNextFrame().getData()).toString());
+    assertEquals("that gets on everybody's nerves", StandardCharsets.UTF_8.decode(reader.getNextFrame().getData()).toString());
+  }
+
+  @Test
+  public void testAsyncWrite() throws Exception
+  {
+    final MatroskaFileWriter writer = new MatroskaFileWriter(ioDW);
+    writer.setAsync(4);
+    writer.addTrack(testTrack);
+    for (int i = 0; i < 100; i++)
+    {
+      final MatroskaFileFrame frame = generateFrame("Frame " + i, 42);
+      frame.setTimecode(i * 200);
+      writer.addFrame(frame);
+    }
+    writer.close();
+
+    final FileDataSource inputDataSource = new FileDataSource(destination.getPath());
+    final MatroskaFile reader = new MatroskaFile(inputDataSource);
+    reader.readFile();
+    for (int i = 0; i < 100; i++)
+    {
+      final MatroskaFileFrame frame = reader.getNextFrame();
+      assertEquals(i * 200, frame.getTimecode());
+      assertEquals("Frame " + i, StandardCharsets.UTF_8.decode(frame.getData()).toString());
+    }
+    assertEquals(null, reader.getNextFrame());
+  }
+
+  @Test
+  public void testInterleavedProducers() throws Exception
+  {
+    final MatroskaFileWriter writer = new MatroskaFileWriter(ioDW);
+    // Wider than the whole file, so the order never depends on how the threads are scheduled
+    writer.setInterleaved(1000000);
+    writer.addTrack(testTrack);
+    final MatroskaFileTrack nextTrack = new MatroskaFileTrack();
+    nextTrack.setTrackNo(2);
+    nextTrack.setTrackType(TrackType.SUBTITLE);
+    nextTrack.setCodecID("some other subtitle codec");
+    writer.addTrack(nextTrack);
+    final Thread[] threads = new Thread[2];
+    for (int t = 0; t < threads.length; t++)
+    {
+      final int trackNo = t == 0 ? 42 : 2;
+      threads[t] = new Thread()
+      {
+        @Override
+        public void run()
+        {
+          for (int i = trackNo == 42 ? 0 : 1; i < 200; i += 2)
+          {
+            final MatroskaFileFrame frame = new MatroskaFileFrame();
+            frame.setData(ByteBuffer.wrap(("Frame " + i).getBytes(StandardCharsets.UTF_8)));
+            frame.setTrackNo(trackNo);
+            frame.setTimecode(i * 100);
+            writer.addFrame(frame);
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (final Thread thread: threads)
+    {
+      thread.join();
+    }
+    writer.close();
+
+    final FileDataSource inputDataSource = new FileDataSource(destination.getPath());
+    final MatroskaFile reader = new MatroskaFile(inputDataSource);
+    reader.readFile();
+    for (int i = 0; i < 200; i++)
+    {
+      final MatroskaFileFrame frame = reader.getNextFrame();
+      assertEquals(i * 100, frame.getTimecode());
+      assertEquals(i % 2 == 0 ? 42 : 2, frame.getTrackNo());
+    }
+    assertEquals(null, reader.getNextFrame());
+  }
+
   public void testDocTraversal() throws FileNotFoundException, IOException
   {
     final FileDataSource ioDS = new FileDataSource(destination.getPath());
@@ -158,6 +476,22 @@ public class MatroskaFileWriterTest
     }
   }
 
+  /**
+   * Reads all the children of a master, with their data
+   */
+  private static List<Element> readChildren(final MasterElement master, final EBMLReader reader, final DataSource ioDS)
+  {
+    final List<Element> children = new ArrayList<>();
+    Element child = master.readNextChild(reader);
+    while (child != null)
+    {
+      child.readData(ioDS);
+      children.add(child);
+      child = master.readNextChild(reader);
+    }
+    return children;
+  }
+
   private MatroskaFileFrame generateFrame(final String string, final int trackNo)
   {
     final MatroskaFileFrame frame = new MatroskaFileFrame();
@@ -0,0 +1,84 @@
+package org.ebml.matroska;
+
+import static org.ebml.ElementBytes.concat;
+import static org.ebml.ElementBytes.element;
+import static org.ebml.ElementBytes.string;
+import static org.ebml.ElementBytes.uint;
+import static org.ebml.ElementBytes.unknownSize;
+import static org.ebml.matroska.MatroskaFileTest.blockGroup;
+import static org.ebml.matroska.MatroskaFileTest.info;
+import static org.ebml.matroska.MatroskaFileTest.simpleBlock;
+import static org.ebml.matroska.MatroskaFileTest.text;
+import static org.ebml.matroska.MatroskaFileTest.tracks;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class MatroskaStreamParserTest
+{
+  @Test
+  public void testChunks()
+  {
+    // A live stream: unknown sizes, timecodes in tenths of a millisecond, and Cues to pass over between the Clusters
+    final byte[] stream = concat(element(MatroskaDocTypes.EBML, string(MatroskaDocTypes.DocType, "webm")),
+                                 unknownSize(MatroskaDocTypes.Segment,
+                                             8,
+                                             info(100000),
+                                             tracks(1, 200),
+                                             unknownSize(MatroskaDocTypes.Cluster,
+                                                         1,
+                                                         uint(MatroskaDocTypes.Timecode, 10000),
+                                                         simpleBlock(1, 0, "a"),
+                                                         blockGroup(200, 50, "b")),
+                                             element(MatroskaDocTypes.Cues, element(MatroskaDocTypes.CuePoint, uint(MatroskaDocTypes.CueTime, 0))),
+                                             element(MatroskaDocTypes.Cluster, uint(MatroskaDocTypes.Timecode, 20000), simpleBlock(200, -10, "c"))));
+
+    // The same whatever the chunks, down to single bytes
+    for (final int chunkSize: new int[] {1, 3, 100, stream.length })
+    {
+      final List<MatroskaFileTrack> tracks = new ArrayList<>();
+      final List<MatroskaFileFrame> frames = new ArrayList<>();
+      final MatroskaStreamParser parser = new MatroskaStreamParser(new MatroskaStreamParser.Listener()
+      {
+        @Override
+        public void track(final MatroskaFileTrack track)
+        {
+          tracks.add(track);
+        }
+
+        @Override
+        public void frame(final MatroskaFileFrame frame)
+        {
+          frames.add(frame);
+        }
+      });
+      for (int offset = 0; offset < stream.length; offset += chunkSize)
+      {
+        parser.feed(ByteBuffer.wrap(stream, offset, Math.min(chunkSize, stream.length - offset)));
+      }
+      parser.finish();
+
+      assertEquals(stream.length, parser.getPosition());
+      assertEquals(100000, parser.getTimecodeScale());
+      assertEquals(2, tracks.size());
+      assertEquals(1, tracks.get(0).getTrackNo());
+      assertEquals(200, tracks.get(1).getTrackNo());
+      assertEquals("S_TEXT/UTF8", tracks.get(1).getCodecID());
+      assertEquals(3, frames.size());
+      assertEquals("a", text(frames.get(0)));
+      assertEquals(10000, frames.get(0).getTimecode());
+      assertEquals(true, frames.get(0).isKeyFrame());
+      // Only reported once the group has ended, after the duration
+      assertEquals("b", text(frames.get(1)));
+      assertEquals(200, frames.get(1).getTrackNo());
+      assertEquals(10050, frames.get(1).getTimecode());
+      assertEquals(7, frames.get(1).getDuration());
+      assertEquals("c", text(frames.get(2)));
+      assertEquals(19990, frames.get(2).getTimecode());
+    }
+  }
+}